@@ -122,10 +122,13 @@ public class Utilities {
     }
 
     public static long getTimeFrameStart(TimeFrame timeFrame) {
+        return getTimeFrameStart(timeFrame, System.currentTimeMillis());
+    }
+
+    public static long getTimeFrameStart(TimeFrame timeFrame, long time) {
 
         Calendar cal = Calendar.getInstance();
-        Date now = new Date();
-        cal.setTime(now);
+        cal.setTimeInMillis(time);
         switch (timeFrame) {
             case BEGINNING_OF_DAY: // 1 day
                 cal.set(Calendar.HOUR_OF_DAY, 0);
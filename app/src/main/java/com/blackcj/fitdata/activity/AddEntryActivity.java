@@ -13,10 +13,10 @@ import android.view.MenuItem;
 import android.view.View;
 
 import com.blackcj.fitdata.R;
-import com.blackcj.fitdata.Utilities;
 import com.blackcj.fitdata.database.CacheManager;
 import com.blackcj.fitdata.database.DataManager;
 import com.blackcj.fitdata.fragment.AddEntryFragment;
+import com.blackcj.fitdata.model.DataChange;
 import com.blackcj.fitdata.model.Workout;
 
 import butterknife.Bind;
@@ -182,7 +182,7 @@ public class AddEntryActivity extends BaseActivity implements DataManager.IDataM
     }
 
     @Override
-    public void onDataChanged(Utilities.TimeFrame timeFrame) {
+    public void onDataChanged(DataChange change) {
 
     }
 
@@ -31,6 +31,7 @@ import com.blackcj.fitdata.R;
 import com.blackcj.fitdata.database.DataManager;
 import com.blackcj.fitdata.fragment.PageFragment;
 import com.blackcj.fitdata.fragment.SettingsFragment;
+import com.blackcj.fitdata.model.DataChange;
 import com.blackcj.fitdata.model.UserPreferences;
 import com.blackcj.fitdata.model.Workout;
 import com.blackcj.fitdata.service.BackgroundRefreshService;
@@ -391,29 +392,21 @@ public class MainActivity extends BaseActivity implements SearchView.OnQueryText
     }
 
     @Override
-    public void onDataChanged(final Utilities.TimeFrame timeFrame) {
+    public void onDataChanged(final DataChange change) {
         Log.d(TAG, "DATA CHANGED");
-        // TODO: Refresh prev / next page too
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if (timeFrame == Utilities.TimeFrame.BEGINNING_OF_DAY) {
-                    if (mAdapter.getFragment(0) != null) {
-                        mAdapter.getFragment(0).refreshData();
+                // Only reload the visible pages whose time frame the change falls in, the others
+                // read the report again when they are shown
+                int current = mViewPager.getCurrentItem();
+                for (int position = current - 1; position <= current + 1; position++) {
+                    if (position < 0 || position >= mAdapter.getCount()) {
+                        continue;
                     }
-                } else if (timeFrame == Utilities.TimeFrame.BEGINNING_OF_WEEK) {
-                    if (mAdapter.getFragment(1) != null) {
-                        mAdapter.getFragment(1).refreshData();
-                    }
-                } else {
-                    if (mAdapter.getFragment(mViewPager.getCurrentItem()) != null) {
-                        mAdapter.getFragment(mViewPager.getCurrentItem()).refreshData();
-                    }
-                    if (mAdapter.getFragment(mViewPager.getCurrentItem() + 1) != null) {
-                        mAdapter.getFragment(mViewPager.getCurrentItem() + 1).refreshData();
-                    }
-                    if (mAdapter.getFragment(mViewPager.getCurrentItem() - 1) != null) {
-                        mAdapter.getFragment(mViewPager.getCurrentItem() - 1).refreshData();
+                    PageFragment fragment = mAdapter.getFragment(position);
+                    if (fragment != null && change.overlaps(Utilities.TimeFrame.values()[position])) {
+                        fragment.refreshData();
                     }
                 }
             }
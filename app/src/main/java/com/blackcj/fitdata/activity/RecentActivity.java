@@ -15,12 +15,14 @@ import android.view.MenuItem;
 import android.view.View;
 
 import com.blackcj.fitdata.R;
-import com.blackcj.fitdata.Utilities;
 import com.blackcj.fitdata.database.CacheManager;
 import com.blackcj.fitdata.database.DataManager;
+import com.blackcj.fitdata.database.MultiThreadSQLiteOpenHelper;
 import com.blackcj.fitdata.database.SimpleDBHelper;
 import com.blackcj.fitdata.fragment.RecentFragment;
+import com.blackcj.fitdata.model.DataChange;
 import com.blackcj.fitdata.model.Workout;
+import com.blackcj.fitdata.model.WorkoutTypes;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -39,6 +41,7 @@ public class RecentActivity extends BaseActivity implements DataManager.IDataMan
     private static final String ARG_ACTIVITY_TYPE = "ARG_ACTIVITY_TYPE";
     private DataManager mDataManager;
     private Cursor mCursor;
+    private MultiThreadSQLiteOpenHelper.Lease mDbLease;
     private Workout lastWorkout;
 
     @Bind(R.id.container) View container;
@@ -70,7 +73,8 @@ public class RecentActivity extends BaseActivity implements DataManager.IDataMan
         }
         toolbar.setNavigationIcon(getResources().getDrawable(R.drawable.ic_close_white, null));
         mDataManager = DataManager.getInstance(this);
-        SQLiteDatabase mDb = SimpleDBHelper.INSTANCE.open(this.getApplicationContext());
+        mDbLease = SimpleDBHelper.INSTANCE.acquire(this.getApplicationContext());
+        SQLiteDatabase mDb = mDbLease.getDatabase();
         fragment = RecentFragment.create();
         FragmentTransaction transaction = getSupportFragmentManager().beginTransaction();
         transaction.replace(R.id.placeholder, fragment, RecentFragment.TAG);
@@ -98,7 +102,7 @@ public class RecentActivity extends BaseActivity implements DataManager.IDataMan
     @Override
     protected void onDestroy() {
         mCursor.close();
-        SimpleDBHelper.INSTANCE.close();
+        mDbLease.close();
         mDataManager.disconnect();
         super.onDestroy();
     }
@@ -153,7 +157,7 @@ public class RecentActivity extends BaseActivity implements DataManager.IDataMan
         Snackbar.make(container, "Removed entry", Snackbar.LENGTH_LONG).setAction("UNDO", clickListener).show();
         Log.d(TAG, "Removed: " + workout.toString());
         mDataManager.deleteWorkout(workout);
-        onDataChanged(Utilities.TimeFrame.ALL_TIME);
+        onDataChanged(DataChange.of(workout));
     }
 
     @Override
@@ -168,12 +172,16 @@ public class RecentActivity extends BaseActivity implements DataManager.IDataMan
     };
 
     @Override
-    public void onDataChanged(Utilities.TimeFrame timeFrame) {
-        final SQLiteDatabase mDb = SimpleDBHelper.INSTANCE.open(this.getApplicationContext());
+    public void onDataChanged(DataChange change) {
+        // The list leaves out step counts and time spent still
+        if (!change.hasOtherType(WorkoutTypes.STEP_COUNT.getValue(), WorkoutTypes.STILL.getValue())) {
+            return;
+        }
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if (mDb != null) {
+                if (!mDbLease.isClosed()) {
+                    SQLiteDatabase mDb = mDbLease.getDatabase();
                     mCursor = cupboard().withDatabase(mDb).query(Workout.class).withSelection("type != ? AND type != ?", "3", "-2").orderBy("start DESC").limit(200).query().getCursor();
                     fragment.swapCursor(mCursor);
                     Log.d(TAG, "Refresh cursor");
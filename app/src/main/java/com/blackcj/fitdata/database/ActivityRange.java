@@ -0,0 +1,37 @@
+package com.blackcj.fitdata.database;
+
+import com.blackcj.fitdata.model.Workout;
+
+import java.util.List;
+
+/**
+ * Created by Chris Black
+ *
+ * A range of activity segments moving through the sync pipeline.
+ */
+class ActivityRange {
+    final String name;
+    final long start;
+    final long end;
+    final long timeoutMinutes;
+    final boolean chunked;                  // Read in adaptive windows instead of one request
+    boolean journaled = false;              // Record in the sync journal once written
+    long journalUntil = Long.MAX_VALUE;     // Windows of a chunked range ending later are not journaled
+    boolean failed = false;
+    long readMillis = 0;
+    FitnessSource.SegmentResult segmentResult;
+    FitnessSource.StepDeltaResult stepDeltaResult;
+    List<Workout> workouts;
+
+    ActivityRange(String name, long start, long end, long timeoutMinutes) {
+        this(name, start, end, timeoutMinutes, false);
+    }
+
+    ActivityRange(String name, long start, long end, long timeoutMinutes, boolean chunked) {
+        this.name = name;
+        this.start = start;
+        this.end = end;
+        this.timeoutMinutes = timeoutMinutes;
+        this.chunked = chunked;
+    }
+}
@@ -0,0 +1,227 @@
+package com.blackcj.fitdata.database;
+
+import android.util.Log;
+
+import com.blackcj.fitdata.Utilities;
+import com.blackcj.fitdata.model.SyncChunk;
+import com.blackcj.fitdata.model.Workout;
+import com.blackcj.fitdata.model.WorkoutTypes;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Chris Black
+ *
+ * Fetch and convert stages of the activity sync. Fetching makes all of the requests to the
+ * {@link FitnessSource}, converting turns the segments into workouts with their step counts.
+ * Chunked ranges are read in adaptive windows, skipping the windows the journal says were
+ * already committed.
+ *
+ * The source is passed in, so the same stages run against Google Fit in the app and against an
+ * in memory source in the unit tests.
+ */
+class ActivityReader implements SyncPipeline.Fetcher<ActivityRange>,
+        SyncPipeline.Converter<ActivityRange, ActivityRange> {
+
+    private static final String TAG = "ActivityReader";
+
+    private final FitnessSource mSource;
+    private final Iterator<ActivityRange> mRanges;
+    private final boolean mServerQueries;
+    private final long mChunkTimeoutMinutes;
+    private final Journal mJournal;
+    private ActivityRange mChunkedRange;
+    private AdaptiveChunker mChunker;
+    private volatile long mFailedFrom = Long.MAX_VALUE;
+
+    /**
+     * @param ranges Ranges to read, most recent first
+     * @param serverQueries Also read data that is only stored in the cloud
+     * @param chunkTimeoutMinutes How long each window of a chunked range gets
+     * @param journal Windows that were already committed, may be null
+     */
+    ActivityReader(FitnessSource source, List<ActivityRange> ranges, boolean serverQueries,
+                   long chunkTimeoutMinutes, Journal journal) {
+        mSource = source;
+        mRanges = ranges.iterator();
+        mServerQueries = serverQueries;
+        mChunkTimeoutMinutes = chunkTimeoutMinutes;
+        mJournal = journal;
+    }
+
+    /**
+     * @return Start of the oldest range that failed or Long.MAX_VALUE if none did
+     */
+    public long getFailedFrom() {
+        return mFailedFrom;
+    }
+
+    @Override
+    public ActivityRange fetch() {
+        while (true) {
+            if (mChunker != null) {
+                ActivityRange chunk = fetchChunk();
+                if (chunk != null) {
+                    return chunk;
+                }
+                Log.i(TAG, "Loaded " + mChunkedRange.name + ", " + mChunker.getFailedChunks() + " failed chunks, "
+                        + TimeUnit.MILLISECONDS.toHours(mChunker.getSkipped()) + "h already in the journal");
+                mChunker = null;
+            }
+            if (!mRanges.hasNext()) {
+                return null;
+            }
+            ActivityRange range = mRanges.next();
+            if (range.chunked) {
+                mChunkedRange = range;
+                mChunker = new AdaptiveChunker(range.start, range.end);
+                // Skip what an interrupted run already committed
+                if (mJournal != null) {
+                    for (SyncChunk chunk : mJournal.getCompleted(range.start, range.end)) {
+                        mChunker.skip(chunk.rangeStart, chunk.rangeEnd);
+                    }
+                }
+                continue;
+            }
+            Log.i(TAG, "Loading " + range.name);
+            // Estimated steps and duration by Activity
+            range.segmentResult = mSource.readActivitySegments(range.start, range.end, mServerQueries, range.timeoutMinutes);
+            range.stepDeltaResult = readStepDeltas(range.segmentResult);
+            return range;
+        }
+    }
+
+    /**
+     * Read the next window of the chunked range. Failed windows are retried at a smaller size
+     * and handed on once the chunker gives up on them, so the failure gets recorded.
+     *
+     * @return The window that was read or null when the chunked range is done
+     */
+    private ActivityRange fetchChunk() {
+        AdaptiveChunker.Chunk chunk;
+        while ((chunk = mChunker.next()) != null) {
+            ActivityRange range = new ActivityRange(mChunkedRange.name + " " + Utilities.getTimeDateString(chunk.start),
+                    chunk.start, chunk.end, mChunkTimeoutMinutes);
+            Log.i(TAG, "Loading " + range.name + " (" + TimeUnit.MILLISECONDS.toHours(chunk.end - chunk.start) + "h)");
+            // Windows reaching into the overlap are read again by the next sync, never skip them
+            range.journaled = chunk.end <= mChunkedRange.journalUntil;
+            long readStart = System.nanoTime();
+            range.segmentResult = mSource.readActivitySegments(range.start, range.end, mServerQueries, range.timeoutMinutes);
+            range.readMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - readStart);
+            if (range.segmentResult.isSuccess()) {
+                mChunker.onSuccess(chunk, range.readMillis, range.segmentResult.segments.size());
+            } else if (mChunker.onFailure(chunk)) {
+                Log.w(TAG, "Warning: unable to read " + range.name + ", retrying with a smaller window");
+                continue;
+            }
+            range.stepDeltaResult = readStepDeltas(range.segmentResult);
+            return range;
+        }
+        return null;
+    }
+
+    @Override
+    public ActivityRange convert(ActivityRange range) {
+        List<Workout> segments = new ArrayList<>();
+        if (range.segmentResult.isSuccess()) {
+            readActivitySegments(range.segmentResult.segments, segments);
+        } else {
+            range.failed = true;
+            Log.w(TAG, "Warning: unable to read " + range.name + ". " + range.segmentResult.statusMessage);
+        }
+        if (range.stepDeltaResult != null && !range.stepDeltaResult.isSuccess()) {
+            range.failed = true;
+        }
+        if (range.failed) {
+            mFailedFrom = Math.min(mFailedFrom, range.start);
+        }
+        resolveStepCounts(segments, range.stepDeltaResult);
+        range.workouts = segments;
+        return range;
+    }
+
+    /**
+     * Convert activity segments to workouts. Used to store data to display in reports and graphs.
+     *
+     * @param activitySegments segments read from the fitness source
+     * @param segments list the workouts are added to
+     */
+    private void readActivitySegments(List<FitnessSource.Segment> activitySegments, List<Workout> segments) {
+        for (FitnessSource.Segment segment : activitySegments) {
+            Log.i(TAG, "Found: " + WorkoutTypes.getActivityTextById(segment.activityType) + " entered by: " + segment.packageName);
+
+            // Recent data is likely to change so always over-write it.
+            Workout workout = new Workout();
+            workout.start = segment.start;
+            workout.duration = segment.end - segment.start;
+            workout.type = segment.activityType;
+            workout.packageName = segment.packageName;
+            segments.add(workout);
+        }
+    }
+
+    /**
+     * Read the step deltas covering every segment in a single request.
+     *
+     * @param segmentResult Result of the activity segment read.
+     * @return Result with the step deltas or null if there are no segments.
+     */
+    private FitnessSource.StepDeltaResult readStepDeltas(FitnessSource.SegmentResult segmentResult) {
+        if (!segmentResult.isSuccess()) {
+            return null;
+        }
+        long rangeStart = Long.MAX_VALUE;
+        long rangeEnd = Long.MIN_VALUE;
+        for (FitnessSource.Segment segment : segmentResult.segments) {
+            rangeStart = Math.min(rangeStart, segment.start);
+            rangeEnd = Math.max(rangeEnd, segment.end);
+        }
+        if (rangeEnd <= rangeStart) {
+            return null;
+        }
+        return mSource.readStepDeltas(rangeStart, rangeEnd);
+    }
+
+    /**
+     * Fill in the step count of each segment from step deltas covering all of them.
+     *
+     * @param segments workouts to update
+     * @param stepDeltaResult Result of the step delta read, may be null.
+     */
+    private void resolveStepCounts(List<Workout> segments, FitnessSource.StepDeltaResult stepDeltaResult) {
+        if (segments.size() == 0 || stepDeltaResult == null) {
+            return;
+        }
+        if (!stepDeltaResult.isSuccess()) {
+            Log.w(TAG, "Warning: unable to read step deltas. " + stepDeltaResult.statusMessage);
+            return;
+        }
+
+        SegmentStepResolver resolver = new SegmentStepResolver();
+        for (int i = 0; i < stepDeltaResult.count; i++) {
+            resolver.addDelta(stepDeltaResult.startTimes[i], stepDeltaResult.endTimes[i], stepDeltaResult.steps[i]);
+        }
+        long[] segmentStart = new long[segments.size()];
+        long[] segmentEnd = new long[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            Workout workout = segments.get(i);
+            segmentStart[i] = workout.start;
+            segmentEnd[i] = workout.start + workout.duration;
+        }
+        Log.i(TAG, "Resolving " + segments.size() + " segments against " + resolver.getDeltaCount() + " step deltas");
+        int[] stepCounts = resolver.resolve(segmentStart, segmentEnd);
+        for (int i = 0; i < segments.size(); i++) {
+            segments.get(i).stepCount = stepCounts[i];
+        }
+    }
+
+    /**
+     * Windows of a chunked range that were committed by an earlier run.
+     */
+    public interface Journal {
+        List<SyncChunk> getCompleted(long start, long end);
+    }
+}
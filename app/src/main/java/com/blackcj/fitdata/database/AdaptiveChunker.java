@@ -0,0 +1,176 @@
+package com.blackcj.fitdata.database;
+
+import java.util.Arrays;
+
+/**
+ * Created by Chris Black
+ *
+ * Splits a long read into time windows, oldest first, and sizes each window from how the
+ * previous one went. A window that came back quickly with few results doubles the next window,
+ * a slow or large one halves it. A failed window is retried at half the size until it reaches
+ * the minimum window, after which it is skipped so the rest of the range can still load.
+ *
+ * Ranges that an earlier run already completed can be passed to {@link #skip(long, long)}, the
+ * windows are laid out around them.
+ *
+ * Call {@link #next()} for a window, then report it with {@link #onSuccess(Chunk, long, int)}
+ * or {@link #onFailure(Chunk)} before asking for the next one.
+ */
+public class AdaptiveChunker {
+
+    public static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+    public static final long DEFAULT_INITIAL_WINDOW = DAY_MILLIS * 7;
+    public static final long DEFAULT_MIN_WINDOW = DAY_MILLIS;
+    public static final long DEFAULT_MAX_WINDOW = DAY_MILLIS * 28;
+    public static final long DEFAULT_TARGET_MILLIS = 5000;
+    public static final int DEFAULT_TARGET_SIZE = 1000;
+
+    private final long mEnd;
+    private final long mMinWindow;
+    private final long mMaxWindow;
+    private final long mTargetMillis;
+    private final int mTargetSize;
+    private long mCursor;
+    private long mWindow;
+    private int mFailedChunks = 0;
+    private long[] mSkipStart = new long[0];
+    private long[] mSkipEnd = new long[0];
+    private long mSkipped = 0;
+
+    public AdaptiveChunker(long startTime, long endTime) {
+        this(startTime, endTime, DEFAULT_INITIAL_WINDOW, DEFAULT_MIN_WINDOW, DEFAULT_MAX_WINDOW,
+                DEFAULT_TARGET_MILLIS, DEFAULT_TARGET_SIZE);
+    }
+
+    /**
+     * @param initialWindow Size of the first window in milliseconds
+     * @param minWindow Windows are never smaller than this
+     * @param maxWindow Windows are never larger than this
+     * @param targetMillis Reads slower than this shrink the window, much faster ones grow it
+     * @param targetSize Reads with more results than this shrink the window, much fewer grow it
+     */
+    public AdaptiveChunker(long startTime, long endTime, long initialWindow, long minWindow, long maxWindow,
+                           long targetMillis, int targetSize) {
+        mCursor = startTime;
+        mEnd = endTime;
+        mMinWindow = Math.max(1, minWindow);
+        mMaxWindow = Math.max(mMinWindow, maxWindow);
+        mWindow = Math.min(Math.max(initialWindow, mMinWindow), mMaxWindow);
+        mTargetMillis = targetMillis;
+        mTargetSize = targetSize;
+    }
+
+    /**
+     * Leave a range out, it has already been read. Must be called before the first window.
+     */
+    public void skip(long start, long end) {
+        if (end <= start) {
+            return;
+        }
+        int size = mSkipStart.length;
+        mSkipStart = Arrays.copyOf(mSkipStart, size + 1);
+        mSkipEnd = Arrays.copyOf(mSkipEnd, size + 1);
+        // Keep the ranges sorted by start
+        int index = size;
+        while (index > 0 && mSkipStart[index - 1] > start) {
+            mSkipStart[index] = mSkipStart[index - 1];
+            mSkipEnd[index] = mSkipEnd[index - 1];
+            index--;
+        }
+        mSkipStart[index] = start;
+        mSkipEnd[index] = end;
+    }
+
+    /**
+     * @return The next window to read or null when the whole range has been handled
+     */
+    public Chunk next() {
+        // Step over completed ranges, the next one to avoid bounds the window
+        long limit = mEnd;
+        for (int i = 0; i < mSkipStart.length; i++) {
+            if (mSkipEnd[i] <= mCursor) {
+                continue;
+            }
+            if (mSkipStart[i] <= mCursor) {
+                long end = Math.min(mSkipEnd[i], mEnd);
+                if (end > mCursor) {
+                    mSkipped += end - mCursor;
+                    mCursor = end;
+                }
+                continue;
+            }
+            limit = Math.min(mSkipStart[i], mEnd);
+            break;
+        }
+        if (mCursor >= mEnd) {
+            return null;
+        }
+        long end = mCursor + mWindow;
+        // Don't leave a sliver behind for a request of its own
+        if (end + mMinWindow > limit) {
+            end = limit;
+        }
+        return new Chunk(mCursor, end);
+    }
+
+    /**
+     * The window was read, move past it and size the next one.
+     *
+     * @param elapsedMillis How long the read took
+     * @param resultSize Number of results returned
+     */
+    public void onSuccess(Chunk chunk, long elapsedMillis, int resultSize) {
+        mCursor = chunk.end;
+        if (elapsedMillis > mTargetMillis || resultSize > mTargetSize) {
+            mWindow = Math.max(mWindow / 2, mMinWindow);
+        } else if (elapsedMillis < mTargetMillis / 2 && resultSize < mTargetSize / 2) {
+            mWindow = Math.min(mWindow * 2, mMaxWindow);
+        }
+    }
+
+    /**
+     * The window failed to read.
+     *
+     * @return true if the window will be retried at a smaller size, false if it was skipped
+     */
+    public boolean onFailure(Chunk chunk) {
+        if (mWindow > mMinWindow && chunk.end - chunk.start > mMinWindow) {
+            mWindow = Math.max(Math.min(mWindow, chunk.end - chunk.start) / 2, mMinWindow);
+            return true;
+        }
+        mFailedChunks++;
+        mCursor = chunk.end;
+        return false;
+    }
+
+    /**
+     * @return Current window size in milliseconds
+     */
+    public long getWindow() {
+        return mWindow;
+    }
+
+    /**
+     * @return Milliseconds of the range that were skipped as already completed
+     */
+    public long getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * @return Number of windows that were skipped after failing at the minimum size
+     */
+    public int getFailedChunks() {
+        return mFailedChunks;
+    }
+
+    public static class Chunk {
+        public final long start;
+        public final long end;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
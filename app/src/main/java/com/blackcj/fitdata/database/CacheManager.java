@@ -4,16 +4,21 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
 import android.os.ResultReceiver;
 import android.util.Log;
 
 import com.blackcj.fitdata.Utilities;
 import com.blackcj.fitdata.activity.MainActivity;
 import com.blackcj.fitdata.model.Workout;
+import com.blackcj.fitdata.model.WorkoutColumns;
+import com.blackcj.fitdata.model.WorkoutReport;
 import com.blackcj.fitdata.model.WorkoutTypes;
 import com.blackcj.fitdata.service.ReadCacheIntentService;
 import com.blackcj.fitdata.service.SummaryCacheIntentService;
 
+import java.util.ArrayList;
+
 import nl.qbusict.cupboard.QueryResultIterable;
 
 import static nl.qbusict.cupboard.CupboardFactory.cupboard;
@@ -25,10 +30,25 @@ public class CacheManager {
 
     public static final String TAG = "CacheManager";
 
+    // Both served by the workout_start_type index, see CupboardSQLiteOpenHelper
+    static final String WORKOUT_COLUMNS_QUERY = "SELECT start, duration, type, stepCount, packageName FROM Workout "
+            + "WHERE start > ? AND start <= ? ORDER BY start";
+    static final String WORKOUT_TOTALS_QUERY = "SELECT type, MIN(start), SUM(duration), SUM(stepCount) FROM Workout "
+            + "WHERE start > ? AND start <= ? AND type != ? AND (stepCount != 0 OR duration >= 60000) "
+            + "GROUP BY type";
+
     public CacheManager() {
     }
 
     public static void getReport(Utilities.TimeFrame timeFrame, ResultReceiver callback, Context context) {
+        ArrayList<Workout> report = ReportCache.get(timeFrame);
+        if (report != null) {
+            // Nothing changed since the report was built, skip the service
+            Bundle bundle = new Bundle();
+            bundle.putParcelableArrayList("workoutList", report);
+            callback.send(200, bundle);
+            return;
+        }
         if (context != null) {
             Intent intentService = new Intent(context.getApplicationContext(), ReadCacheIntentService.class);
             intentService.putExtra("TimeFrame", timeFrame);
@@ -49,23 +69,79 @@ public class CacheManager {
     public static boolean checkConflict(Context context, Workout inWorkout) {
         boolean overlap = false;
         if (context != null) {
-            final CupboardSQLiteOpenHelper dbHelper = new CupboardSQLiteOpenHelper(context);
-            final SQLiteDatabase mDb = dbHelper.getReadableDatabase();
-            long rangeStart = inWorkout.start - 1000 * 60 * 60 * 24;
-            long rangeEnd = inWorkout.start + inWorkout.duration;
-            QueryResultIterable<Workout> itr = cupboard().withDatabase(mDb).query(Workout.class).withSelection("start BETWEEN ? AND ?", "" + rangeStart, "" + rangeEnd).query();
-            for (Workout workout : itr) {
-                Log.d(TAG, workout.toString());
-                if (workout.type != WorkoutTypes.STILL.getValue() && workout.type != WorkoutTypes.UNKNOWN.getValue() && workout.overlaps(inWorkout)) {
-                    overlap = true;
+            final SQLiteDatabase mDb = SimpleDBHelper.INSTANCE.acquireReader(context);
+            try {
+                long rangeStart = inWorkout.start - 1000 * 60 * 60 * 24;
+                long rangeEnd = inWorkout.start + inWorkout.duration;
+                QueryResultIterable<Workout> itr = cupboard().withDatabase(mDb).query(Workout.class).withSelection("start BETWEEN ? AND ?", "" + rangeStart, "" + rangeEnd).query();
+                for (Workout workout : itr) {
+                    Log.d(TAG, workout.toString());
+                    if (workout.type != WorkoutTypes.STILL.getValue() && workout.type != WorkoutTypes.UNKNOWN.getValue() && workout.overlaps(inWorkout)) {
+                        overlap = true;
+                    }
                 }
+                itr.close();
+            } finally {
+                SimpleDBHelper.INSTANCE.releaseReader(mDb);
             }
-            itr.close();
-            dbHelper.close();
         }
         return overlap;
     }
 
+    /**
+     * Read the workouts that start in the range, oldest first, straight from the cursor into
+     * columns. Nothing is allocated per row.
+     *
+     * @param startTime Rows starting after this time
+     * @param endTime Rows starting at or before this time
+     * @param columns Receives the rows, cleared first
+     */
+    public static void readWorkoutColumns(SQLiteDatabase db, long startTime, long endTime, WorkoutColumns columns) {
+        columns.clear();
+        Cursor cursor = db.rawQuery(WORKOUT_COLUMNS_QUERY, new String[] { "" + startTime, "" + endTime });
+        try {
+            columns.ensureCapacity(cursor.getCount());
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getLong(0), cursor.getLong(1), cursor.getInt(2), cursor.getInt(3), cursor.getString(4));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Add up the workouts that start in the range per activity type in SQL. Rows the report
+     * ignores, still time and step-less segments under a minute, are filtered out in the query
+     * so only one row per type comes back.
+     *
+     * @param startTime Rows starting after this time
+     * @param endTime Rows starting at or before this time
+     * @param report Receives one entry per type, dated by the first row of the type
+     */
+    public static void readWorkoutTotals(SQLiteDatabase db, long startTime, long endTime, WorkoutReport report) {
+        Cursor cursor = db.rawQuery(WORKOUT_TOTALS_QUERY, new String[] { "" + startTime, "" + endTime,
+                "" + WorkoutTypes.STILL.getValue() });
+        try {
+            while (cursor.moveToNext()) {
+                report.addWorkoutData(cursor.getInt(0), cursor.getLong(1), cursor.getLong(2), cursor.getInt(3));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Start of the oldest workout or -1 if there is none
+     */
+    public static long getFirstWorkoutStart(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT MIN(start) FROM Workout WHERE start > 0", null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     public interface ICacheManager {
         Cursor getCursor();
     }
@@ -3,20 +3,57 @@ package com.blackcj.fitdata.database;
 import static nl.qbusict.cupboard.CupboardFactory.cupboard;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
 
+import com.blackcj.fitdata.model.SyncChunk;
 import com.blackcj.fitdata.model.Workout;
 
 public class CupboardSQLiteOpenHelper extends MultiThreadSQLiteOpenHelper {
-    private static final String DATABASE_NAME = "googlefitexample.db";
-    private static final int DATABASE_VERSION = 2;
+    private static final String TAG = "CupboardSQLiteOpenHelper";
+    static final String DATABASE_NAME = "googlefitexample.db";
+    private static final int DATABASE_VERSION = 6;
 
     static {
         // register our models
         cupboard().register(Workout.class);
+        cupboard().register(SyncChunk.class);
     }
 
+    /**
+     * Schema changes cupboard can't make on its own, in version order. Each one runs once when
+     * the database is upgraded past its version. A new database runs all of them after the
+     * tables are created, so they have to work on empty tables as well.
+     */
+    private static final Migration[] MIGRATIONS = new Migration[] {
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Workouts are matched on (start, type, packageName) by the incremental sync
+                    db.execSQL("UPDATE Workout SET packageName = '' WHERE packageName IS NULL");
+                }
+            },
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Time range queries, optionally narrowed by type, and the sync upsert
+                    db.execSQL("CREATE INDEX IF NOT EXISTS workout_start_type ON Workout (start, type, packageName)");
+                    // Summaries of a single activity type
+                    db.execSQL("CREATE INDEX IF NOT EXISTS workout_type_start ON Workout (type, start)");
+                }
+            },
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Filled in the background, see DataManager
+                    DailyRollup.create(db);
+                }
+            }
+    };
+
     public CupboardSQLiteOpenHelper(Context context) {
         super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        // Readers use their own connections and don't block on the sync writer
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -24,6 +61,7 @@ public class CupboardSQLiteOpenHelper extends MultiThreadSQLiteOpenHelper {
         // this will ensure that all tables are created
         cupboard().withDatabase(db).createTables();
         // add indexes and other database tweaks
+        migrate(db, 0, DATABASE_VERSION);
     }
 
     @Override
@@ -32,5 +70,29 @@ public class CupboardSQLiteOpenHelper extends MultiThreadSQLiteOpenHelper {
         // Note that existing columns will not be converted
         cupboard().withDatabase(db).upgradeTables();
         // do migration work
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Run the migrations after oldVersion up to and including newVersion. Called inside the
+     * upgrade transaction so a failed migration leaves the database at the old version.
+     */
+    private static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > oldVersion && migration.version <= newVersion) {
+                Log.i(TAG, "Migrating database to version " + migration.version);
+                migration.migrate(db);
+            }
+        }
+    }
+
+    private static abstract class Migration {
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,203 @@
+package com.blackcj.fitdata.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.blackcj.fitdata.model.UserPreferences;
+import com.blackcj.fitdata.model.WorkoutTypes;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Chris Black
+ *
+ * Per day and activity type totals of the Workout table, so reports and charts read one row per
+ * day instead of every segment.
+ *
+ * The table is kept up to date by triggers on Workout. They run inside the transaction of the
+ * insert, update or delete that fires them, so the totals can't drift from the rows whichever
+ * code path writes them. Only rows that count toward a report are included, still time and
+ * step-less segments under a minute are left out the same way {@link com.blackcj.fitdata.model.WorkoutReport}
+ * leaves them out.
+ *
+ * Days start at local midnight. A new table, or a change of time zone, needs a
+ * {@link #rebuild(SQLiteDatabase)} from the raw rows before it can be read.
+ *
+ * Reports read the table through a shared {@link RollupStore} and charts through the
+ * {@link RollupMonthCache}, both loaded on first use and dropped by
+ * {@link #invalidateStore(long, long)} whenever the data changes.
+ */
+public class DailyRollup {
+
+    private static final String TAG = "DailyRollup";
+
+    public static final String TABLE = "daily_rollup";
+
+    // Days of the Workout table in a range, for when this table needs a rebuild
+    static final String WORKOUT_DAYS_QUERY = "SELECT " + dayOf("start") + ", type, SUM(duration), "
+            + "SUM(IFNULL(stepCount, 0)), COUNT(*) FROM Workout WHERE start >= ? AND start < ? AND "
+            + counts("Workout") + " GROUP BY 1, 2";
+
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+    private static volatile RollupStore sStore;
+
+    private DailyRollup() {
+    }
+
+    /**
+     * Create the table and the triggers that maintain it. Safe to call more than once.
+     */
+    static void create(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (day INTEGER NOT NULL, type INTEGER NOT NULL, "
+                + "duration INTEGER NOT NULL DEFAULT 0, steps INTEGER NOT NULL DEFAULT 0, "
+                + "count INTEGER NOT NULL DEFAULT 0, PRIMARY KEY (day, type))");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS daily_rollup_insert AFTER INSERT ON Workout BEGIN "
+                + add("NEW") + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS daily_rollup_delete AFTER DELETE ON Workout BEGIN "
+                + remove("OLD") + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS daily_rollup_update AFTER UPDATE OF start, type, duration, stepCount ON Workout BEGIN "
+                + remove("OLD") + " " + add("NEW") + " END");
+    }
+
+    /**
+     * Recompute every day from the Workout table in a single transaction.
+     */
+    public static void rebuild(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.delete(TABLE, null, null);
+            db.execSQL("INSERT INTO " + TABLE + " (day, type, duration, steps, count) SELECT "
+                    + dayOf("start") + ", type, SUM(duration), SUM(IFNULL(stepCount, 0)), COUNT(*) FROM Workout WHERE "
+                    + counts("Workout") + " GROUP BY 1, 2");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return Store with every day of the table, shared until the data changes
+     */
+    public static RollupStore getStore(SQLiteDatabase db) {
+        RollupStore store = sStore;
+        if (store != null) {
+            return store;
+        }
+        int generation = sGeneration.get();
+        store = load(db);
+        // Don't keep a store that may have missed a change made while it was loading
+        if (sGeneration.get() == generation) {
+            sStore = store;
+        }
+        return store;
+    }
+
+    /**
+     * Drop the shared store and the cached months that hold the changed start times, the next
+     * report loads them again.
+     */
+    public static void invalidateStore(long startTime, long endTime) {
+        sGeneration.incrementAndGet();
+        sStore = null;
+        RollupMonthCache.invalidate(startTime, endTime);
+    }
+
+    /**
+     * @return First day in the table or -1 if it is empty
+     */
+    public static long getFirstDay(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT MIN(day) FROM " + TABLE, null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static RollupStore load(SQLiteDatabase db) {
+        RollupStore store = new RollupStore();
+        Cursor cursor = db.rawQuery("SELECT day, type, duration, steps, count FROM " + TABLE, null);
+        try {
+            while (cursor.moveToNext()) {
+                store.addDay(cursor.getLong(0), cursor.getInt(1), cursor.getLong(2), cursor.getLong(3), cursor.getInt(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        return store;
+    }
+
+    /**
+     * Read the totals of the days from local midnight startDay up to endDay, one row per day and
+     * type: day, type, duration, steps, count.
+     *
+     * @param fromWorkouts Add up the Workout rows instead, for when the table needs a rebuild
+     */
+    static Cursor queryDays(SQLiteDatabase db, long startDay, long endDay, boolean fromWorkouts) {
+        if (fromWorkouts) {
+            return db.rawQuery(WORKOUT_DAYS_QUERY, new String[] { "" + startDay, "" + endDay });
+        }
+        return db.rawQuery("SELECT day, type, duration, steps, count FROM " + TABLE + " WHERE day >= ? AND day < ?",
+                new String[] { "" + startDay, "" + endDay });
+    }
+
+    /**
+     * @return true if the table was never built or was built in another time zone
+     */
+    public static boolean needsRebuild(Context context) {
+        return !TimeZone.getDefault().getID().equals(UserPreferences.getRollupTimeZone(context));
+    }
+
+    /**
+     * Record that the table was rebuilt.
+     *
+     * @param timeZoneId Time zone that was current when the rebuild started
+     */
+    public static void setBuilt(Context context, String timeZoneId) {
+        Log.i(TAG, "Daily rollup built for " + timeZoneId);
+        UserPreferences.setRollupTimeZone(context, timeZoneId);
+    }
+
+    /**
+     * @return Local midnight of the day that contains the time, the key the table uses
+     */
+    public static long getDayStart(long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * SQL for the local midnight of a millisecond column, matches {@link #getDayStart(long)}.
+     */
+    static String dayOf(String column) {
+        return "(CAST(strftime('%s', " + column + " / 1000, 'unixepoch', 'localtime', 'start of day', 'utc') AS INTEGER) * 1000)";
+    }
+
+    private static String counts(String row) {
+        return row + ".type != " + WorkoutTypes.STILL.getValue()
+                + " AND (IFNULL(" + row + ".stepCount, 0) != 0 OR " + row + ".duration >= 60000)";
+    }
+
+    private static String add(String row) {
+        String day = dayOf(row + ".start");
+        return "INSERT OR IGNORE INTO " + TABLE + " (day, type) SELECT " + day + ", " + row + ".type WHERE " + counts(row) + "; "
+                + "UPDATE " + TABLE + " SET duration = duration + " + row + ".duration, steps = steps + IFNULL(" + row + ".stepCount, 0), "
+                + "count = count + 1 WHERE day = " + day + " AND type = " + row + ".type AND " + counts(row) + ";";
+    }
+
+    private static String remove(String row) {
+        String day = dayOf(row + ".start");
+        return "UPDATE " + TABLE + " SET duration = duration - " + row + ".duration, steps = steps - IFNULL(" + row + ".stepCount, 0), "
+                + "count = count - 1 WHERE day = " + day + " AND type = " + row + ".type AND " + counts(row) + "; "
+                + "DELETE FROM " + TABLE + " WHERE day = " + day + " AND type = " + row + ".type AND count <= 0;";
+    }
+}
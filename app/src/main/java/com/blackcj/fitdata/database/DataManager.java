@@ -10,10 +10,13 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.blackcj.fitdata.Utilities;
+import com.blackcj.fitdata.model.DataChange;
+import com.blackcj.fitdata.model.SyncChunk;
 import com.blackcj.fitdata.model.UserPreferences;
 import com.blackcj.fitdata.model.Workout;
 import com.blackcj.fitdata.model.WorkoutTypes;
@@ -23,22 +26,10 @@ import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.Scopes;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.common.api.Scope;
-import com.google.android.gms.common.api.Status;
 import com.google.android.gms.fitness.Fitness;
 import com.google.android.gms.fitness.FitnessStatusCodes;
-import com.google.android.gms.fitness.data.Bucket;
-import com.google.android.gms.fitness.data.DataPoint;
-import com.google.android.gms.fitness.data.DataSet;
 import com.google.android.gms.fitness.data.DataType;
-import com.google.android.gms.fitness.data.Device;
-import com.google.android.gms.fitness.data.Field;
-import com.google.android.gms.fitness.data.Subscription;
-import com.google.android.gms.fitness.request.DataDeleteRequest;
-import com.google.android.gms.fitness.request.DataReadRequest;
-import com.google.android.gms.fitness.result.DataReadResult;
-import com.google.android.gms.fitness.result.ListSubscriptionsResult;
 import com.google.android.gms.plus.Plus;
 
 import java.lang.ref.WeakReference;
@@ -48,7 +39,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.TimeZone;
 
 import static nl.qbusict.cupboard.CupboardFactory.cupboard;
 
@@ -67,12 +58,21 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
     public static final String TAG = "DataManager";
     public static final String DATE_FORMAT = "MM.dd h:mm a";
     private static final int PLAY_SERVICES_RESOLUTION_REQUEST = 9000;
+    private static final int STEP_BACKFILL_CONCURRENCY = StepBackfill.DEFAULT_CONCURRENCY;
+    // Read the whole step range with one bucketed request instead of one request per day
+    private static final boolean BULK_STEP_SYNC = true;
+    // Older activity is read in adaptive windows, each window gets this long
+    private static final long CHUNK_TIMEOUT_MINUTES = 5;
 
     private WeakReference<SQLiteDatabase> mDb;
+    private MultiThreadSQLiteOpenHelper.Lease mDbLease;
     private WeakReference<Context> mContext;
     private GoogleApiClient mClient;
+    private FitnessSource mFitnessSource;
+    private volatile long mLastSyncProgress = 0;
     private final List<WeakReference<IDataManager>> mListeners;
     private boolean refreshInProgress = false;
+    private volatile boolean rollupRebuildInProgress = false;
     private SimpleDBHelper mHelper;
     private int retryCount = 0;
 
@@ -110,14 +110,22 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
         return isConnected;
     }
 
-    private void notifyListenersDataChanged(Utilities.TimeFrame timeFrame) {
+    /**
+     * Tell the caches and listeners which workout start times were written or deleted.
+     */
+    private void notifyListenersDataChanged(DataChange change) {
+        Log.v(TAG, "Data changed: " + change);
+        // Every write is followed by a change notification, reports reload the rollup
+        DailyRollup.invalidateStore(change.startTime, change.endTime);
+        RunningSummary.INSTANCE.invalidate(change.startTime, change.endTime);
+        ReportCache.invalidate(change.startTime, change.endTime);
         int i = 0;
         for(int z = this.mListeners.size(); i < z; ++i) {
             WeakReference<IDataManager> ref = this.mListeners.get(i);
             if (ref != null) {
                 IDataManager dataManager = ref.get();
                 if (dataManager != null) {
-                    dataManager.onDataChanged(timeFrame);
+                    dataManager.onDataChanged(change);
                 }
             }
         }
@@ -207,7 +215,8 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                 Log.v(TAG, "Connecting client.");
                 mClient.reconnect();
             }
-            getDatabase();
+            openDatabase();
+            rebuildRollupIfNeeded();
         } else {
             Log.w(TAG, "WARNING: No play services.");
         }
@@ -261,14 +270,30 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
 
     }
 
-    public void closeDatabase() {
-        SimpleDBHelper.INSTANCE.close();
+    /**
+     * Hold the database open while connected so short operations don't reopen it.
+     */
+    private synchronized void openDatabase() {
+        Context context = getApplicationContext();
+        if (mDbLease == null && context != null) {
+            mDbLease = SimpleDBHelper.INSTANCE.acquire(context);
+        }
+    }
+
+    public synchronized void closeDatabase() {
+        if (mDbLease != null) {
+            mDbLease.close();
+            mDbLease = null;
+        }
     }
 
-    private SQLiteDatabase getDatabase() {
+    /**
+     * @return Lease on the database that must be closed when done, null without a context
+     */
+    private MultiThreadSQLiteOpenHelper.Lease acquireDatabase() {
         Context context = getApplicationContext();
         if (context != null) {
-            return SimpleDBHelper.INSTANCE.open(context);
+            return SimpleDBHelper.INSTANCE.acquire(context);
         }
 
         return null;
@@ -306,9 +331,10 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
         final long currentTime = cal.getTimeInMillis();
         if (context != null && refreshInProgress) {
 
-            if (currentTime - UserPreferences.getLastSyncStart(context) > 1000 * 60 * 10) {
-                // TODO: Add start sync time
-                // More than 10 minutes have passed. Let the user execute another refresh.
+            long lastProgress = Math.max(UserPreferences.getLastSyncStart(context), mLastSyncProgress);
+            if (currentTime - lastProgress > 1000 * 60 * 10) {
+                // More than 10 minutes have passed without a chunk being committed. Let the user
+                // execute another refresh, it will skip the chunks that were journaled.
                 refreshInProgress = false;
                 retryCount = 0;
                 Log.w(TAG, "Warning: Refresh timed out.");
@@ -319,15 +345,9 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                 dumpSubscriptionsList();
                 refreshInProgress = true;
                 UserPreferences.setLastSyncStart(context, currentTime);
-                long syncStart = UserPreferences.getLastSync(context) - (1000 * 60 * 60 * 2);
-                //long syncStart = Utilities.getTimeFrameStart(Utilities.TimeFrame.BEGINNING_OF_DAY);
                 if (context != null) {
-                    SQLiteDatabase db = getDatabase();
-                    if (db != null && db.isOpen()) {
-                        //db.execSQL("DELETE FROM " + Workout.class.getSimpleName()); // This deletes all data
-                        cupboard().withDatabase(db).delete(Workout.class, "start >= ?", "" + syncStart);
-                    }
-
+                    // The sync picks up from the watermarks and replaces changed rows in place,
+                    // so nothing needs to be deleted up front.
                     //UserPreferences.setBackgroundLoadComplete(context, false);
                     //UserPreferences.setLastSync(context, syncStart);
                     populateHistoricalData();
@@ -345,14 +365,8 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                 refreshInProgress = true;
                 Context context = getApplicationContext();
                 if (context != null) {
-                    SQLiteDatabase db = getDatabase();
-                    if (db != null && db.isOpen()) {
-                        //db.execSQL("DELETE FROM " + Workout.class.getSimpleName()); // This deletes all data
-                        cupboard().withDatabase(db).delete(Workout.class, "start >= ?", "" + syncStart);
-                    }
-                    //closeDatabase();
                     //UserPreferences.setBackgroundLoadComplete(context, false);
-                    UserPreferences.setLastSync(context, syncStart);
+                    rewindSyncWatermarks(context, syncStart);
                     populateHistoricalData();
                 }
             }
@@ -367,14 +381,8 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
             Context context = getApplicationContext();
             long syncStart = Utilities.getTimeFrameStart(Utilities.TimeFrame.THIRTY_DAYS);
             if (context != null) {
-                SQLiteDatabase db = getDatabase();
-                if (db != null && db.isOpen()) {
-                    //db.execSQL("DELETE FROM " + Workout.class.getSimpleName()); // This deletes all data
-                    cupboard().withDatabase(db).delete(Workout.class, "start >= ?", "" + syncStart);
-                }
-                //closeDatabase();
                 //UserPreferences.setBackgroundLoadComplete(context, false);
-                UserPreferences.setLastSync(context, syncStart);
+                rewindSyncWatermarks(context, syncStart);
                 populateHistoricalData();
             }
         } else {
@@ -391,27 +399,22 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
         cal.add(Calendar.DAY_OF_YEAR, -1);
         long startTime = cal.getTimeInMillis();
         long syncStart = startTime - (1000 * 60 * 60 * 24);
-        SQLiteDatabase db = getDatabase();
-        if (db != null && db.isOpen()) {
-            cupboard().withDatabase(db).delete(Workout.class, "start >= ?", "" + syncStart);
+        MultiThreadSQLiteOpenHelper.Lease lease = acquireDatabase();
+        if (lease != null) {
+            try {
+                cupboard().withDatabase(lease.getDatabase()).delete(Workout.class, "start >= ?", "" + syncStart);
+            } finally {
+                lease.close();
+            }
+            notifyListenersDataChanged(new DataChange(syncStart, Long.MAX_VALUE, null));
         } else {
             Log.w(TAG, "Warning: db is null");
         }
         //closeDatabase();
-        // https://developers.google.com/android/reference/com/google/android/gms/fitness/request/DataDeleteRequest
-        //  Create a delete request object, providing a data type and a time interval
-        DataDeleteRequest request = new DataDeleteRequest.Builder()
-                .setTimeInterval(startTime, endTime, TimeUnit.MILLISECONDS)
-                .deleteAllData()
-                .deleteAllSessions()
-                .build();
-
-        // Invoke the History API with the Google API client object and delete request, and then
-        // specify a callback that will check the result.
-        Fitness.HistoryApi.deleteData(mClient, request)
-                .setResultCallback(new ResultCallback<Status>() {
+        // Delete all data and sessions in the time interval, then check the result.
+        mFitnessSource.deleteData(startTime, endTime, new FitnessSource.Callback<FitnessSource.Result>() {
                     @Override
-                    public void onResult(Status status) {
+                    public void onResult(FitnessSource.Result status) {
                         if (status.isSuccess()) {
                             Log.i(TAG, "Successfully deleted last day of data.");
                         } else {
@@ -423,7 +426,7 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                 });
         Context context = getApplicationContext();
         if(context != null) {
-            UserPreferences.setLastSync(context, syncStart);
+            rewindSyncWatermarks(context, syncStart);
         }
         populateHistoricalData();
     }
@@ -434,28 +437,22 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
             long endTime = workout.start + workout.duration;
             long startTime = workout.start;
             //long syncStart = workout.start - (1000 * 60 * 60 * 8);
-            SQLiteDatabase db = getDatabase();
-            if (db != null && db.isOpen()) {
-                //cupboard().withDatabase(db).delete(Workout.class, "start >= ?", "" + syncStart);
-                cupboard().withDatabase(db).delete(Workout.class, "start = ? AND type = ?", "" + startTime, "" + workout.type);
+            MultiThreadSQLiteOpenHelper.Lease lease = acquireDatabase();
+            if (lease != null) {
+                try {
+                    //cupboard().withDatabase(db).delete(Workout.class, "start >= ?", "" + syncStart);
+                    cupboard().withDatabase(lease.getDatabase()).delete(Workout.class, "start = ? AND type = ?", "" + startTime, "" + workout.type);
+                } finally {
+                    lease.close();
+                }
             } else {
                 Log.w(TAG, "Warning: db is null");
             }
             //closeDatabase();
-            // https://developers.google.com/android/reference/com/google/android/gms/fitness/request/DataDeleteRequest
-            //  Create a delete request object, providing a data type and a time interval
-            DataDeleteRequest request = new DataDeleteRequest.Builder()
-                    .setTimeInterval(startTime, endTime, TimeUnit.MILLISECONDS)
-                    .deleteAllData()
-                    .deleteAllSessions()
-                    .build();
-
-            // Invoke the History API with the Google API client object and delete request, and then
-            // specify a callback that will check the result.
-            Fitness.HistoryApi.deleteData(mClient, request)
-                    .setResultCallback(new ResultCallback<Status>() {
+            // Delete all data and sessions in the time interval, then check the result.
+            mFitnessSource.deleteData(startTime, endTime, new FitnessSource.Callback<FitnessSource.Result>() {
                         @Override
-                        public void onResult(Status status) {
+                        public void onResult(FitnessSource.Result status) {
                             if (status.isSuccess()) {
                                 Log.i(TAG, "Successfully deleted: " + workout.toString());
                             } else {
@@ -465,8 +462,75 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                             }
                         }
                     });
-            notifyListenersDataChanged(Utilities.TimeFrame.ALL_TIME);
+            notifyListenersDataChanged(DataChange.of(workout));
+
+        }
+    }
 
+    /**
+     * The time the next sync of a data type has to read from. Installs that synced before
+     * watermarks were tracked fall back to the last successful sync.
+     *
+     * @return watermark in milliseconds or 0 if the data type has never been synced
+     */
+    private static long getSyncWatermark(Context context, DataType dataType) {
+        long watermark = UserPreferences.getSyncWatermark(context, dataType.getName());
+        if (watermark == 0) {
+            long lastSync = UserPreferences.getLastSync(context);
+            if (lastSync > 0) {
+                watermark = lastSync - SyncPlanner.SYNC_OVERLAP;
+            }
+        }
+        return watermark;
+    }
+
+    /**
+     * Move the watermarks back so the next sync reads everything from the given time on. Data
+     * types that have never been synced are left alone, they will do a full read anyway.
+     * Journaled chunks past the given time are dropped so they are not skipped.
+     */
+    private void rewindSyncWatermarks(Context context, long time) {
+        DataType[] dataTypes = new DataType[] {DataType.TYPE_STEP_COUNT_DELTA, DataType.TYPE_ACTIVITY_SEGMENT};
+        for (DataType dataType : dataTypes) {
+            long watermark = getSyncWatermark(context, dataType);
+            if (watermark > 0 && time < watermark) {
+                UserPreferences.setSyncWatermark(context, dataType.getName(), time);
+            }
+        }
+        MultiThreadSQLiteOpenHelper.Lease lease = acquireDatabase();
+        if (lease != null) {
+            try {
+                SyncJournal.invalidate(lease.getDatabase(), time);
+            } finally {
+                lease.close();
+            }
+        }
+    }
+
+    /**
+     * @return Start of the step count day shard that contains the given time
+     */
+    private static long getDayShardStart(long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 1);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        if (cal.getTimeInMillis() > time) {
+            cal.add(Calendar.DAY_OF_YEAR, -1);
+        }
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * Rebuild the daily rollup in the background when it is new or the time zone changed.
+     */
+    private void rebuildRollupIfNeeded() {
+        Context context = getApplicationContext();
+        if (context != null && !rollupRebuildInProgress && DailyRollup.needsRebuild(context)) {
+            rollupRebuildInProgress = true;
+            new RebuildRollupTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         }
     }
 
@@ -491,13 +555,37 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
         }
     }
 
+    private class RebuildRollupTask extends AsyncTask<Void, Void, Void> {
+        protected Void doInBackground(Void... params) {
+            MultiThreadSQLiteOpenHelper.Lease lease = acquireDatabase();
+            if (lease == null) {
+                rollupRebuildInProgress = false;
+                return null;
+            }
+            try {
+                // Writes that land while rebuilding keep the table up to date through the triggers
+                String timeZoneId = TimeZone.getDefault().getID();
+                long rebuildStart = SystemClock.elapsedRealtime();
+                DailyRollup.rebuild(lease.getDatabase());
+                Log.i(TAG, "Rebuilt daily rollup in " + (SystemClock.elapsedRealtime() - rebuildStart) + "ms");
+                Context context = getApplicationContext();
+                if (context != null) {
+                    DailyRollup.setBuilt(context, timeZoneId);
+                }
+            } finally {
+                lease.close();
+                rollupRebuildInProgress = false;
+            }
+            notifyListenersDataChanged(DataChange.ALL);
+            return null;
+        }
+    }
+
     private class InsertSessionTask extends AsyncTask<Workout, Void, Void> {
         protected Void doInBackground(Workout... params) {
 
             Workout workout = params[0];
 
-            String activityName = WorkoutTypes.getActivityTextById(workout.type);
-
             // Then, invoke the History API to insert the data and await the result, which is
             // possible here because of the {@link AsyncTask}. Always include a timeout when calling
             // await() to prevent hanging that can occur from the service being shutdown because
@@ -506,30 +594,36 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
             Context context = getApplicationContext();
             if(context != null && isConnected()) {
                 workout.packageName = context.getPackageName();
-                Device device = Device.getLocalDevice(context);
-                com.google.android.gms.common.api.Status insertStatus =
-                        Fitness.SessionsApi.insertSession(mClient, DataQueries.createSession(workout.start, workout.start + workout.duration, workout.stepCount, activityName, context.getPackageName(), device))
-                                .await(1, TimeUnit.MINUTES);
+                FitnessSource.Result insertStatus = mFitnessSource.insertSession(workout.start,
+                        workout.start + workout.duration, workout.type, workout.stepCount);
 
                 // Before querying the session, check to see if the insertion succeeded.
                 if (!insertStatus.isSuccess()) {
                     Log.i(TAG, "There was a problem inserting the session: " +
-                            insertStatus.getStatusMessage());
+                            insertStatus.statusMessage);
                     return null;
                 }
 
                 // At this point, the session has been inserted and can be read.
                 Log.i(TAG, "Session insert was successful!");
 
-                SQLiteDatabase db = getDatabase();
-                if (db != null && db.isOpen()) {
-                    if (workout.duration > 0) {
-                        long start = workout.start - (1000 * 60 * 60 * 2);
-                        cupboard().withDatabase(db).delete(Workout.class, "start >= ? AND start < ?", "" + start, "" + (workout.start + workout.duration));
-                        cupboard().withDatabase(db).put(workout);
-                        notifyListenersDataChanged(Utilities.TimeFrame.ALL_TIME);
-                    } else {
-                        Log.w(TAG, "Warning: workout duration is 0.");
+                MultiThreadSQLiteOpenHelper.Lease lease = acquireDatabase();
+                if (lease != null) {
+                    try {
+                        if (workout.duration > 0) {
+                            long start = workout.start - (1000 * 60 * 60 * 2);
+                            // Replace the overlapping data in a single transaction
+                            WorkoutBatchWriter writer = new WorkoutBatchWriter(lease.getDatabase());
+                            writer.delete("start >= ? AND start < ?", "" + start, "" + (workout.start + workout.duration));
+                            writer.put(workout);
+                            writer.close();
+                            // Rows of any type in the window were replaced
+                            notifyListenersDataChanged(new DataChange(start, workout.start + workout.duration, null));
+                        } else {
+                            Log.w(TAG, "Warning: workout duration is 0.");
+                        }
+                    } finally {
+                        lease.close();
                     }
                 } else {
                     Log.w(TAG, "Warning: db is null");
@@ -537,7 +631,7 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
 
                 if(!refreshInProgress) {
                     //UserPreferences.setBackgroundLoadComplete(context, false);
-                    UserPreferences.setLastSync(context, workout.start);
+                    rewindSyncWatermarks(context, workout.start);
 
                     // TODO: This could be optimized to select an end time.
                     populateHistoricalData();
@@ -553,7 +647,6 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
         protected Void doInBackground(Workout... params) {
 
             Workout workout = params[0];
-            String activityName = WorkoutTypes.getActivityTextById(workout.type);
 
             // Then, invoke the History API to insert the data and await the result, which is
             // possible here because of the {@link AsyncTask}. Always include a timeout when calling
@@ -562,15 +655,13 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
             Log.i(TAG, "Inserting the dataset in the History API");
             Context context = getApplicationContext();
             if (context != null) {
-                Device device = Device.getLocalDevice(context);
-                com.google.android.gms.common.api.Status insertStatus =
-                        Fitness.HistoryApi.insertData(mClient, DataQueries.createActivityDataSet(workout.start, workout.start + workout.duration, activityName, context.getPackageName(), device))
-                                .await(10, TimeUnit.MINUTES);
+                FitnessSource.Result insertStatus = mFitnessSource.insertActivity(workout.start,
+                        workout.start + workout.duration, workout.type);
 
                 // Before querying the session, check to see if the insertion succeeded.
                 if (!insertStatus.isSuccess()) {
                     Log.i(TAG, "There was a problem inserting the dataset: " +
-                            insertStatus.getStatusMessage());
+                            insertStatus.statusMessage);
                     return null;
                 }
 
@@ -578,7 +669,7 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                 Log.i(TAG, "Data insert was successful!");
 
                 //UserPreferences.setBackgroundLoadComplete(context, false);
-                UserPreferences.setLastSync(context, workout.start - (1000 * 60 * 60 * 8));
+                rewindSyncWatermarks(context, workout.start - (1000 * 60 * 60 * 8));
 
                 //populateHistoricalData();
             }
@@ -623,6 +714,7 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                     .addConnectionCallbacks(this)
                     .addOnConnectionFailedListener(this)
                     .build();
+            mFitnessSource = new GoogleFitnessSource(context, mClient);
         }
 
     }
@@ -693,14 +785,12 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
     private void dumpSubscriptionsList() {
         Log.i(TAG, "Dumping subscriptions.");
         // [START list_current_subscriptions]
-        Fitness.RecordingApi.listSubscriptions(mClient)
-                // Create the callback to retrieve the list of subscriptions asynchronously.
-                .setResultCallback(new ResultCallback<ListSubscriptionsResult>() {
+        // Create the callback to retrieve the list of subscriptions asynchronously.
+        mFitnessSource.listSubscriptions(new FitnessSource.Callback<List<String>>() {
                     @Override
-                    public void onResult(ListSubscriptionsResult listSubscriptionsResult) {
-                        for (Subscription sc : listSubscriptionsResult.getSubscriptions()) {
-                            DataType dt = sc.getDataType();
-                            Log.i(TAG, "Active subscription for data type: " + dt.getName());
+                    public void onResult(List<String> dataTypeNames) {
+                        for (String dataTypeName : dataTypeNames) {
+                            Log.i(TAG, "Active subscription for data type: " + dataTypeName);
                         }
                     }
                 });
@@ -752,12 +842,11 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
     }
 
     private void listSubscriptions() {
-        Fitness.RecordingApi.listSubscriptions(mClient).setResultCallback(new ResultCallback<ListSubscriptionsResult>() {
+        mFitnessSource.listSubscriptions(new FitnessSource.Callback<List<String>>() {
             @Override
-            public void onResult(ListSubscriptionsResult result) {
-                for (Subscription sc : result.getSubscriptions()) {
-                    DataType dt = sc.getDataType();
-                    Log.i(TAG, "found subscription for data type: " + dt.getName());
+            public void onResult(List<String> dataTypeNames) {
+                for (String dataTypeName : dataTypeNames) {
+                    Log.i(TAG, "found subscription for data type: " + dataTypeName);
                 }
             }
         });
@@ -765,24 +854,14 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
 
     private void unsubscribeAll() {
         if (isConnected()) {
-            Fitness.RecordingApi.listSubscriptions(mClient).setResultCallback(new ResultCallback<ListSubscriptionsResult>() {
+            mFitnessSource.unsubscribeAll(new FitnessSource.Callback<FitnessSource.Result>() {
                 @Override
-                public void onResult(ListSubscriptionsResult result) {
-                    for (Subscription sc : result.getSubscriptions()) {
-                        DataType dt = sc.getDataType();
-                        Log.i(TAG, "Unsubscribing: " + dt.getName());
-                        Fitness.RecordingApi.unsubscribe(mClient, sc)
-                                .setResultCallback(new ResultCallback<Status>() {
-                                    @Override
-                                    public void onResult(Status status) {
-                                        if (status.isSuccess()) {
-                                            Log.i(TAG, "Successfully unsubscribed for data type: step count delta");
-                                        } else {
-                                            // Subscription not removed
-                                            Log.i(TAG, "Failed to unsubscribe for data type: step count delta");
-                                        }
-                                    }
-                                });
+                public void onResult(FitnessSource.Result status) {
+                    if (status.isSuccess()) {
+                        Log.i(TAG, "Successfully unsubscribed");
+                    } else {
+                        // Subscription not removed
+                        Log.i(TAG, "Failed to unsubscribe: " + status.statusMessage);
                     }
                 }
             });
@@ -797,10 +876,9 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
     private void unsubscribeSteps() {
 
         if (isConnected()) {
-            Fitness.RecordingApi.unsubscribe(mClient, DataType.TYPE_STEP_COUNT_DELTA)
-                    .setResultCallback(new ResultCallback<Status>() {
+            mFitnessSource.unsubscribe(DataType.TYPE_STEP_COUNT_DELTA.getName(), new FitnessSource.Callback<FitnessSource.Result>() {
                         @Override
-                        public void onResult(Status status) {
+                        public void onResult(FitnessSource.Result status) {
                             Context context = getApplicationContext();
                             if (context != null) {
                                 if (status.isSuccess()) {
@@ -809,7 +887,7 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                                     Log.i(TAG, "Successfully unsubscribed for data type: step count delta");
                                 } else {
                                     // Subscription not removed
-                                    Toast.makeText(context, "Error:" + status.getStatusMessage(), Toast.LENGTH_LONG).show();
+                                    Toast.makeText(context, "Error:" + status.statusMessage, Toast.LENGTH_LONG).show();
                                     Log.i(TAG, "Failed to unsubscribe for data type: step count delta");
                                 }
                             }
@@ -826,10 +904,9 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
 
     private void unsubscribeActivity() {
         if (isConnected()) {
-            Fitness.RecordingApi.unsubscribe(mClient, DataType.TYPE_ACTIVITY_SEGMENT)
-                    .setResultCallback(new ResultCallback<Status>() {
+            mFitnessSource.unsubscribe(DataType.TYPE_ACTIVITY_SEGMENT.getName(), new FitnessSource.Callback<FitnessSource.Result>() {
                         @Override
-                        public void onResult(Status status) {
+                        public void onResult(FitnessSource.Result status) {
                             Context context = getApplicationContext();
                             if (context != null) {
                                 if (status.isSuccess()) {
@@ -838,7 +915,7 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                                     UserPreferences.setActivityTracking(context, false);
                                 } else {
                                     // Subscription not removed
-                                    Toast.makeText(context, "Error:" + status.getStatusMessage(), Toast.LENGTH_LONG).show();
+                                    Toast.makeText(context, "Error:" + status.statusMessage, Toast.LENGTH_LONG).show();
                                     Log.i(TAG, "Failed to unsubscribe for data type: activity");
                                 }
                             }
@@ -855,12 +932,11 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
 
     private void subscribeSteps() {
         if (isConnected()) {
-            Fitness.RecordingApi.subscribe(mClient, DataType.TYPE_STEP_COUNT_DELTA)
-                    .setResultCallback(new ResultCallback<Status>() {
+            mFitnessSource.subscribe(DataType.TYPE_STEP_COUNT_DELTA.getName(), new FitnessSource.Callback<FitnessSource.Result>() {
                         @Override
-                        public void onResult(Status status) {
+                        public void onResult(FitnessSource.Result status) {
                             if (status.isSuccess()) {
-                                if (status.getStatusCode()
+                                if (status.statusCode
                                         == FitnessStatusCodes.SUCCESS_ALREADY_SUBSCRIBED) {
                                     Log.i(TAG, "Existing subscription for steps detected.");
 
@@ -876,7 +952,7 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                                 Log.i(TAG, "There was a problem subscribing.");
                                 Context context = getApplicationContext();
                                 if (context != null) {
-                                    Toast.makeText(context, "Error:" + status.getStatusMessage(), Toast.LENGTH_LONG).show();
+                                    Toast.makeText(context, "Error:" + status.statusMessage, Toast.LENGTH_LONG).show();
                                     UserPreferences.setCountSteps(context, false);
                                 }
                             }
@@ -893,12 +969,11 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
 
     private void subscribeActivity() {
         if (isConnected()) {
-            Fitness.RecordingApi.subscribe(mClient, DataType.TYPE_ACTIVITY_SEGMENT)
-                    .setResultCallback(new ResultCallback<Status>() {
+            mFitnessSource.subscribe(DataType.TYPE_ACTIVITY_SEGMENT.getName(), new FitnessSource.Callback<FitnessSource.Result>() {
                         @Override
-                        public void onResult(Status status) {
+                        public void onResult(FitnessSource.Result status) {
                             if (status.isSuccess()) {
-                                if (status.getStatusCode()
+                                if (status.statusCode
                                         == FitnessStatusCodes.SUCCESS_ALREADY_SUBSCRIBED) {
                                     Log.i(TAG, "Existing subscription for activity detected.");
                                 } else {
@@ -913,7 +988,7 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                                 Log.i(TAG, "There was a problem subscribing.");
                                 Context context = getApplicationContext();
                                 if (context != null) {
-                                    Toast.makeText(context, "Error:" + status.getStatusMessage(), Toast.LENGTH_LONG).show();
+                                    Toast.makeText(context, "Error:" + status.statusMessage, Toast.LENGTH_LONG).show();
                                     UserPreferences.setActivityTracking(context, false);
                                     buildFitnessClient(getContext());
                                 }
@@ -929,8 +1004,25 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
         }
     }
 
-    private class ReadHistoricalDataTask extends AsyncTask<Void, Void, Void> {
+    private class ReadHistoricalDataTask extends AsyncTask<Void, Void, Void> implements StepBackfill.StepWriter {
+
+        private WorkoutBatchWriter mBatchWriter;
+        private boolean mLogSteps = false;
+
         protected Void doInBackground(Void... params) {
+            // Keep the database open for the whole sync, listeners may disconnect before it is done
+            MultiThreadSQLiteOpenHelper.Lease lease = acquireDatabase();
+            try {
+                readHistoricalData(lease);
+            } finally {
+                if (lease != null) {
+                    lease.close();
+                }
+            }
+            return null;
+        }
+
+        private void readHistoricalData(MultiThreadSQLiteOpenHelper.Lease lease) {
             // Setting a start and end date using a range of 1 month before this moment.
             Calendar cal = Calendar.getInstance();
             Date now = new Date();
@@ -943,7 +1035,8 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
             Context context = getApplicationContext();
             if (context != null) {
                 refreshInProgress = true;
-                long lastSync = UserPreferences.getLastSync(context);
+                long stepWatermark = getSyncWatermark(context, DataType.TYPE_STEP_COUNT_DELTA);
+                long activityWatermark = getSyncWatermark(context, DataType.TYPE_ACTIVITY_SEGMENT);
 
                 // Update step count
                 cal.setTime(now);
@@ -954,308 +1047,250 @@ public class DataManager implements GoogleApiClient.ConnectionCallbacks, GoogleA
                 cal.set(Calendar.MILLISECOND, 0);
                 startTime = cal.getTimeInMillis();
 
-                int numberOfDays = 30;
-                if (lastSync > 0) {
-                    lastSync -=  (1000 * 60 * 60 * 2);
-                    if (lastSync < startTime) {
-                        double diff =  startTime - lastSync;
-                        if (diff / (1000 * 60 * 60 * 24) < 30) {
-                            numberOfDays = (int)Math.floor(diff / (1000 * 60 * 60 * 24));
-                            numberOfDays += 1;
-                        }
-                    } else {
-                        numberOfDays = 1;
-                    }
+                // Read the days from the step watermark on, up to 30 days
+                cal.add(Calendar.DAY_OF_YEAR, -29);
+                long firstDayStart = cal.getTimeInMillis();
+                if (stepWatermark > 0) {
+                    firstDayStart = Math.min(Math.max(firstDayStart, getDayShardStart(stepWatermark)), startTime);
                 }
-                int totalSteps = 0;
+                long[] stepShards = StepBackfill.splitIntoDays(firstDayStart, endTime);
+                int numberOfDays = stepShards.length - 1;
 
-                SQLiteDatabase db = getDatabase();
-                if (db == null || !db.isOpen()) {
-                    notifyListenersDataChanged(Utilities.TimeFrame.ALL_TIME);
+                SQLiteDatabase db = lease != null ? lease.getDatabase() : null;
+                if (db == null) {
                     notifyListenersLoadComplete();
-                    return null;
+                    return;
                 }
-                Log.i(TAG, "Loading " + numberOfDays + " days step count");
-                for (int i = 0; i < numberOfDays; i++) {
-                    DataReadRequest stepCountRequest = DataQueries.queryStepEstimate(startTime, endTime);
-                    final DataReadResult stepCountReadResult = Fitness.HistoryApi.readData(mClient, stepCountRequest).await(5, TimeUnit.MINUTES);
-
-                    if (stepCountReadResult.getStatus().isSuccess()) {
-                        retryCount = 0;
-                        int stepCount = countStepData(stepCountReadResult);
-                        Workout workout = new Workout();
-                        workout.start = startTime;
-                        workout._id = startTime;
-                        workout.type = WorkoutTypes.STEP_COUNT.getValue();
-                        workout.stepCount = stepCount;
-                        totalSteps += stepCount;
-                        //workout.duration = 1000*60*10;
-                        if (numberOfDays < 10) {
-                            Log.i(TAG, "Step count: " + workout.toString());
-                        }
+                mBatchWriter = new WorkoutBatchWriter(db);
+                mLogSteps = numberOfDays < 10;
 
-                        if (db != null && db.isOpen()) {
-                            if (stepCount > 0) {
-                                //cupboard().withDatabase(db).delete(Workout.class, "id = ? AND type = ?", "" + startTime, "" + workout.type);
-                                cupboard().withDatabase(db).put(workout);
-                            } else {
-                                Log.w(TAG, "Warning: step count is 0");
-                            }
-                        } else {
-                            Log.w(TAG, "Warning: db is null");
-                            return null;
-                        }
+                Log.i(TAG, "Loading " + numberOfDays + " days step count");
+                long stepSyncStart = SystemClock.elapsedRealtime();
+                StepBackfill stepBackfill = new StepBackfill(STEP_BACKFILL_CONCURRENCY);
+                FitnessStepReader stepReader = new FitnessStepReader(mFitnessSource);
+                StepBackfill.Result stepResult = BULK_STEP_SYNC && numberOfDays > 1
+                        ? stepBackfill.runBulk(stepShards, stepReader, this)
+                        : stepBackfill.run(stepShards, stepReader, this);
+                // Days before the watermark must be on disk before it is saved. Today is still
+                // changing so a complete backfill leaves the watermark at the start of today.
+                mBatchWriter.flush();
+                long nextStepWatermark = stepResult.complete ? startTime : stepResult.resumeFrom;
+                UserPreferences.setSyncWatermark(context, DataType.TYPE_STEP_COUNT_DELTA.getName(), nextStepWatermark);
+                SyncJournal.prune(db, DataType.TYPE_STEP_COUNT_DELTA.getName(), nextStepWatermark);
+                if (stepResult.shardsWritten > 0) {
+                    SyncJournal.record(db, DataType.TYPE_STEP_COUNT_DELTA.getName(), firstDayStart,
+                            stepShards[stepResult.shardsWritten], stepResult.shardsWritten,
+                            SystemClock.elapsedRealtime() - stepSyncStart);
+                    notifyListenersDataChanged(new DataChange(firstDayStart, stepShards[stepResult.shardsWritten],
+                            new int[] { WorkoutTypes.STEP_COUNT.getValue() }));
+                }
 
-                        endTime = startTime;
-                        cal.add(Calendar.DAY_OF_YEAR, -1);
-                        startTime = cal.getTimeInMillis();
+                if (!stepResult.complete) {
+                    mBatchWriter.close();
+                    refreshInProgress = false;
+                    final FitnessSource.Result failedStatus = stepReader.getFailedStatus();
+                    if (failedStatus == null) {
+                        // Database went away, nothing to report.
+                        return;
+                    }
+                    //closeDatabase();
+                    if (retryCount < 3) {
+                        Log.i(TAG, "Attempting to reconnect client.");
+                        retryCount++;
+                        mClient.reconnect();
                     } else {
+                        final Context activityContext = getContext();
+                        final int statusCode = failedStatus.statusCode;
+                        if (activityContext instanceof Activity) {
+                            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    GoogleApiAvailability gApi = GoogleApiAvailability.getInstance();
+                                    gApi.getErrorDialog((Activity) activityContext, statusCode, 0).show();
+                                    Log.w(TAG, "FAILURE: Unable to read data.");
 
+                                }
+                            });
 
-                        refreshInProgress = false;
-                        //closeDatabase();
-                        if (retryCount < 3) {
-                            Log.i(TAG, "Attempting to reconnect client.");
-                            retryCount++;
-                            mClient.reconnect();
-                        } else {
-                            final Context activityContext = getContext();
-                            if (activityContext instanceof Activity) {
-                                new Handler(Looper.getMainLooper()).post(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        GoogleApiAvailability gApi = GoogleApiAvailability.getInstance();
-                                        gApi.getErrorDialog((Activity) activityContext, stepCountReadResult.getStatus().getStatusCode(), 0).show();
-                                        Log.w(TAG, "FAILURE: Unable to read data.");
-
-                                    }
-                                });
-
-                            }
-                            // TODO: Notify listeners of failure
-
-                            notifyListenersDataChanged(Utilities.TimeFrame.ALL_TIME);
-                            notifyListenersLoadComplete();
                         }
+                        // TODO: Notify listeners of failure
 
-                        return null;
+                        notifyListenersLoadComplete();
                     }
+
+                    return;
                 }
+                retryCount = 0;
 
-                Log.i(TAG, "Loaded " + numberOfDays + " days. Step count: " + totalSteps);
+                Log.i(TAG, "Loaded " + numberOfDays + " days. Step count: " + stepResult.totalSteps);
 
                 // Update activities
-                cal.setTime(now);
-                endTime = cal.getTimeInMillis();
-                if (lastSync > 0) {
-                    Log.i(TAG, "Fast data read starting: " + Utilities.getTimeDateString(lastSync));
-                    startTime = lastSync;
+                endTime = now.getTime();
+                if (activityWatermark > 0) {
+                    Log.i(TAG, "Fast data read starting: " + Utilities.getTimeDateString(activityWatermark));
                 } else {
                     Log.i(TAG, "Slow data read");
-                    cal.setTime(now);
-                    cal.add(Calendar.DAY_OF_YEAR, -90);
-                    startTime = cal.getTimeInMillis();
                 }
+                startTime = SyncPlanner.getActivityStart(activityWatermark, endTime);
 
                 SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
 
                 Log.i(TAG, "Range Start: " + dateFormat.format(startTime));
                 Log.i(TAG, "Range End: " + dateFormat.format(endTime));
 
-                boolean wroteDataToCache = false;
-
-                // Load today
-                long dayStart = Utilities.getTimeFrameStart(Utilities.TimeFrame.BEGINNING_OF_DAY);
-                if(startTime <= dayStart && dayStart < endTime) {
-                    Log.i(TAG, "Loading today");
-                    // Estimated steps and duration by Activity
-                    DataReadRequest activitySegmentRequest = DataQueries.queryActivitySegment(dayStart, endTime, isNetworkConnected());
-                    DataReadResult dataReadResult = Fitness.HistoryApi.readData(mClient, activitySegmentRequest).await(10, TimeUnit.MINUTES);
-                    wroteDataToCache = writeActivityDataToCache(dataReadResult);
-                    endTime = dayStart;
-                    notifyListenersDataChanged(Utilities.TimeFrame.BEGINNING_OF_DAY);
-                }
+                List<ActivityRange> ranges = SyncPlanner.getActivityRanges(startTime, endTime, CHUNK_TIMEOUT_MINUTES);
 
-                // Load week
-                long weekStart = Utilities.getTimeFrameStart(Utilities.TimeFrame.BEGINNING_OF_WEEK);
-
-                //Log.i(TAG, "Range Start: " + dateFormat.format(weekStart));
-                //Log.i(TAG, "Range End: " + dateFormat.format(endTime));
-                if(startTime <= weekStart && weekStart < endTime) {
-                    Log.i(TAG, "Loading week");
-                    // Estimated steps and duration by Activity
-                    DataReadRequest activitySegmentRequest = DataQueries.queryActivitySegment(weekStart, endTime, isNetworkConnected());
-                    DataReadResult dataReadResult = Fitness.HistoryApi.readData(mClient, activitySegmentRequest).await(10, TimeUnit.MINUTES);
-                    wroteDataToCache = writeActivityDataToCache(dataReadResult);
-                    endTime = weekStart;
-                    notifyListenersDataChanged(Utilities.TimeFrame.BEGINNING_OF_WEEK);
-                }
-                boolean hasMoreThanOneWeek = false;
-                // Load rest
-                if (startTime < endTime) {
-
-                    hasMoreThanOneWeek = true;
-                    Log.i(TAG, "Range Start: " + startTime);
-                    Log.i(TAG, "Range End: " + endTime);
-                    Log.i(TAG, "Loading rest");
-                    DataReadRequest activitySegmentRequest = DataQueries.queryActivitySegment(startTime, endTime, isNetworkConnected());
-                    DataReadResult dataReadResult = Fitness.HistoryApi.readData(mClient, activitySegmentRequest).await(15, TimeUnit.MINUTES);
-                    wroteDataToCache = writeActivityDataToCache(dataReadResult);
-                }
+                ActivitySync activitySync = writeActivityRangesToCache(ranges, db, mBatchWriter);
+                mBatchWriter.close();
 
                 cal.setTime(now);
-                Log.i(TAG, "Background load complete");
-                if (wroteDataToCache) {
+                Log.i(TAG, "Background load complete, " + mBatchWriter.getWriteCount() + " workouts written");
+                if (activitySync.wroteDataToCache) {
                     UserPreferences.setLastSync(context, cal.getTimeInMillis());
                     UserPreferences.setBackgroundLoadComplete(context, true);
+                    // Recent segments may still change and failed ranges are missing, read them
+                    // again next time
+                    long nextWatermark = SyncPlanner.getNextActivityWatermark(cal.getTimeInMillis(), activitySync.getFailedFrom());
+                    UserPreferences.setSyncWatermark(context, DataType.TYPE_ACTIVITY_SEGMENT.getName(), nextWatermark);
+                    // Chunks past a failure stay in the journal so the next run skips them
+                    SyncJournal.prune(db, DataType.TYPE_ACTIVITY_SEGMENT.getName(), nextWatermark);
                 }
                 refreshInProgress = false;
-                notifyListenersDataChanged(Utilities.TimeFrame.ALL_TIME);
+                // Steps and each activity range were announced as they were written
                 notifyListenersLoadComplete();
                 //closeDatabase();
                 // Read cached data and calculate real time step estimates
                 //populateReport();
             }
-
-            return null;
         }
-    }
 
-    private boolean writeActivityDataToCache(DataReadResult dataReadResult) {
-        boolean wroteDataToCache = false;
-        for (DataSet dataSet : dataReadResult.getDataSets()) {
-            wroteDataToCache = wroteDataToCache || writeDataSetToCache(dataSet);
+        @Override
+        public boolean writeSteps(long startTime, long endTime, int stepCount) {
+            Workout workout = new Workout();
+            workout.start = startTime;
+            workout.type = WorkoutTypes.STEP_COUNT.getValue();
+            workout.stepCount = stepCount;
+            //workout.duration = 1000*60*10;
+            if (mLogSteps) {
+                Log.i(TAG, "Step count: " + workout.toString());
+            }
+
+            if (stepCount > 0) {
+                if (!mBatchWriter.put(workout)) {
+                    Log.w(TAG, "Warning: db is null");
+                    return false;
+                }
+            } else {
+                Log.w(TAG, "Warning: step count is 0");
+            }
+            return true;
         }
-        return wroteDataToCache;
     }
 
     /**
-     * Walk through all activity fields in a segment dataset and writes them to the cache. Used to
-     * store data to display in reports and graphs.
+     * Fetch, convert and write the activity segments for each range. The three steps run as a
+     * pipeline so the next range is being fetched while the previous one is written.
      *
-     * @param dataSet set of data from the Google Fit API
+     * @param ranges ranges to load, most recent first
+     * @param db database the sync journal is kept in
+     * @param writer batch writer used to store the segments
+     * @return the finished sync
      */
-    private boolean writeDataSetToCache(DataSet dataSet) {
-        boolean wroteDataToCache = true;
-        SQLiteDatabase db = getDatabase();
-        for (DataPoint dp : dataSet.getDataPoints()) {
-            // Populate db cache with data
-            for(Field field : dp.getDataType().getFields()) {
-                if(field.getName().equals("activity") && dp.getDataType().getName().equals("com.google.activity.segment")) {
-                    //Log.i(TAG, dp.getOriginalDataSource().getAppPackageName());
-                    dp.getVersionCode();
-                    long startTime = dp.getStartTime(TimeUnit.MILLISECONDS);
-                    int activity = dp.getValue(field).asInt();
-                    Log.i(TAG, "Found: " + WorkoutTypes.getActivityTextById(activity) + " entered by: " + dp.getOriginalDataSource().getAppPackageName());
-                    Workout workout;
-
-                    if (db != null && db.isOpen()) {
-                        workout = cupboard().withDatabase(db).get(Workout.class, startTime);
-                    } else {
-                        Log.w(TAG, "Warning: db is null");
-                        return false;
-                    }
-
-
-                    // When the workout is null, we need to cache it. If the background task has completed,
-                    // then we have at most 8 - 12 hours of data. Recent data is likely to change so over-
-                    // write it.
-                    Context context = getApplicationContext();
-                    if (context != null && isConnected()) {
-                        //if (workout == null || UserPreferences.getBackgroundLoadComplete(context)) {
-                        long endTime = dp.getEndTime(TimeUnit.MILLISECONDS);
-                        DataReadRequest readRequest = DataQueries.queryStepCount(startTime, endTime);
-                        DataReadResult dataReadResult = Fitness.HistoryApi.readData(mClient, readRequest).await(2, TimeUnit.MINUTES);
-                        int stepCount = countStepData(dataReadResult);
-                        workout = new Workout();
-                        workout._id = startTime;
-                        workout.start = startTime;
-                        workout.duration = endTime - startTime;
-                        workout.stepCount = stepCount;
-                        workout.type = activity;
-                        workout.packageName = dp.getOriginalDataSource().getAppPackageName();
-                        //Log.v("MainActivity", "Put Cache: " + WorkoutTypes.getWorkOutTextById(workout.type) + " " + workout.duration);
-                        if (db != null && db.isOpen()) {
-                            if (workout.duration > 0) {
-                                Log.i(TAG, "Wrote to DB: " + workout.toString());
-                                cupboard().withDatabase(db).put(workout);
-                            } else {
-                                Log.w(TAG, "Warning: duration is 0");
-                            }
-
-                            //wroteDataToCache = true;
-                        } else {
-                            wroteDataToCache = false;
+    private ActivitySync writeActivityRangesToCache(List<ActivityRange> ranges, final SQLiteDatabase db, WorkoutBatchWriter writer) {
+        ActivityReader reader = new ActivityReader(mFitnessSource, ranges, isNetworkConnected(), CHUNK_TIMEOUT_MINUTES,
+                new ActivityReader.Journal() {
+                    @Override
+                    public List<SyncChunk> getCompleted(long start, long end) {
+                        if (!db.isOpen()) {
+                            return new ArrayList<>();
                         }
-                        //} else {
-                            // Do not overwrite data if the initial load is in progress. This would take too
-                            // long and prevent us from accumulating a base set of data.
-                        //}
-                    } else {
-                        wroteDataToCache = false;
+                        return SyncJournal.getCompleted(db, DataType.TYPE_ACTIVITY_SEGMENT.getName(), start, end);
                     }
-
-                }
-            }
+                });
+        ActivitySync activitySync = new ActivitySync(reader, db, writer);
+        SyncPipeline.Stats stats = new SyncPipeline<ActivityRange, ActivityRange>()
+                .run(reader, reader, activitySync);
+        Log.i(TAG, "Activity sync " + stats.toString());
+        if (stats.error != null) {
+            Log.e(TAG, "Activity sync failed", stats.error);
         }
-        return wroteDataToCache;
+        return activitySync;
     }
 
     /**
-     * Count step data for a bucket of step count deltas.
-     *
-     * @param dataReadResult Read result from the step count estimate Google Fit call.
-     * @return Step count for data read.
+     * Write stage of the activity sync, stores the workouts of each range in the database.
      */
-    private int countStepData(DataReadResult dataReadResult) {
-        int stepCount = 0;
-        if (dataReadResult.getBuckets().size() > 0) {
-            //Log.i(TAG, "Number of returned buckets of DataSets is: " + dataReadResult.getBuckets().size());
-            for (Bucket bucket : dataReadResult.getBuckets()) {
-                List<DataSet> dataSets = bucket.getDataSets();
-                for (DataSet dataSet : dataSets) {
-                    stepCount += parseDataSet(dataSet);
-                }
+    private class ActivitySync implements SyncPipeline.Writer<ActivityRange> {
 
-            }
-        } else if (dataReadResult.getDataSets().size() > 0) {
-            //Log.i(TAG, "Number of returned DataSets is: " + dataReadResult.getDataSets().size());
-            for (DataSet dataSet : dataReadResult.getDataSets()) {
-                stepCount += parseDataSet(dataSet);
-            }
-        }
-
-        return stepCount;
-    }
+        private final ActivityReader mReader;
+        private final SQLiteDatabase mDb;
+        private final WorkoutBatchWriter mWriter;
+        boolean wroteDataToCache = false;
 
-    /**
-     * Walk through all fields in a step_count dataset and return the sum of steps. Used to
-     * calculate step counts.
-     *
-     * @param dataSet set of data from the Google Fit API
-     */
-    private int parseDataSet(DataSet dataSet) {
-        int dataSteps = 0;
-        for (DataPoint dp : dataSet.getDataPoints()) {
-            // Accumulate step count for estimate
+        ActivitySync(ActivityReader reader, SQLiteDatabase db, WorkoutBatchWriter writer) {
+            mReader = reader;
+            mDb = db;
+            mWriter = writer;
+        }
 
-            if(dp.getDataType().getName().equals("com.google.step_count.delta")) {
+        /**
+         * @return Start of the oldest range that failed or Long.MAX_VALUE if none did
+         */
+        long getFailedFrom() {
+            return mReader.getFailedFrom();
+        }
 
-                for (Field field : dp.getDataType().getFields()) {
-                    if (dp.getValue(field).asInt() > 0) {
-                        dataSteps += dp.getValue(field).asInt();
-                    }
+        @Override
+        public boolean write(ActivityRange range) {
+            Context context = getApplicationContext();
+            if (context == null || !isConnected()) {
+                return true;
+            }
+            // Segments Fit reclassified, merged, split or removed keep no row of their own, so
+            // the activities read for the window replace everything that was stored in it
+            boolean replaceWindow = range.segmentResult.isSuccess();
+            if (replaceWindow) {
+                mWriter.delete("start >= ? AND start < ? AND type != ?", "" + range.start, "" + range.end,
+                        "" + WorkoutTypes.STEP_COUNT.getValue());
+            }
+            int rowCount = 0;
+            long changedStart = replaceWindow ? range.start : Long.MAX_VALUE;
+            long changedEnd = replaceWindow ? range.end : Long.MIN_VALUE;
+            for (Workout workout : range.workouts) {
+                if (workout.duration > 0) {
+                    Log.i(TAG, "Wrote to DB: " + workout.toString());
+                    mWriter.put(workout);
+                    rowCount++;
+                    // Segments may start before the window they were read for
+                    changedStart = Math.min(changedStart, workout.start);
+                    changedEnd = Math.max(changedEnd, workout.start + 1);
+                } else {
+                    Log.w(TAG, "Warning: duration is 0");
                 }
             }
+            // Commit the range before telling listeners about it
+            if (!mWriter.flush()) {
+                Log.w(TAG, "Warning: db is null");
+                return false;
+            }
+            wroteDataToCache = true;
+            mLastSyncProgress = System.currentTimeMillis();
+            if (range.journaled && !range.failed) {
+                SyncJournal.record(mDb, DataType.TYPE_ACTIVITY_SEGMENT.getName(), range.start, range.end, rowCount, range.readMillis);
+            }
+            // Rows of any type but steps may have been deleted from the window
+            if (changedStart < changedEnd) {
+                notifyListenersDataChanged(new DataChange(changedStart, changedEnd, null));
+            }
+            return true;
         }
-        return dataSteps;
     }
 
     public interface IDataManager {
         void insertData(Workout workout);
         void removeData(Workout workout);
         void onConnected();
-        void onDataChanged(Utilities.TimeFrame timeFrame);
+        void onDataChanged(DataChange change);
         //void onDataFailure();
         void onDataComplete();
     }
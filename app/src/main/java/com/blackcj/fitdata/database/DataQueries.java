@@ -90,6 +90,21 @@ public class DataQueries {
                 .build();
     }
 
+    /**
+     * GET raw STEP_COUNT deltas.
+     *
+     * Retrieves every step count delta in the range so steps can be matched to activity
+     * segments locally instead of with a request per segment.
+     *
+     */
+    public static DataReadRequest queryStepDeltas(long startTime, long endTime) {
+        return new DataReadRequest.Builder()
+                .read(DataType.TYPE_STEP_COUNT_DELTA)
+                .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS)
+                .enableServerQueries() // Used to retrieve data from cloud
+                .build();
+    }
+
     /**
      * Sessions can include multiple data set types.
      *
@@ -0,0 +1,69 @@
+package com.blackcj.fitdata.database;
+
+import java.util.Arrays;
+
+/**
+ * Created by Chris Black
+ *
+ * Growable columns of data points: start, end, a single int value and the package that recorded
+ * the point. Filled by {@link DataSetConverters} and reused between reads with {@link #clear()}
+ * so large reads don't allocate an object per point.
+ */
+public class DataRecords {
+
+    public int count = 0;
+    public long[] startTimes;
+    public long[] endTimes;
+    public int[] values;
+    public String[] packageNames;
+
+    public DataRecords() {
+        this(64);
+    }
+
+    public DataRecords(int capacity) {
+        capacity = Math.max(capacity, 1);
+        startTimes = new long[capacity];
+        endTimes = new long[capacity];
+        values = new int[capacity];
+        packageNames = new String[capacity];
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > startTimes.length) {
+            int size = Math.max(capacity, startTimes.length * 2);
+            startTimes = Arrays.copyOf(startTimes, size);
+            endTimes = Arrays.copyOf(endTimes, size);
+            values = Arrays.copyOf(values, size);
+            packageNames = Arrays.copyOf(packageNames, size);
+        }
+    }
+
+    public void add(long startTime, long endTime, int value, String packageName) {
+        ensureCapacity(count + 1);
+        startTimes[count] = startTime;
+        endTimes[count] = endTime;
+        values[count] = value;
+        packageNames[count] = packageName;
+        count++;
+    }
+
+    /**
+     * @return Sum of the positive values
+     */
+    public int sumPositiveValues() {
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            if (values[i] > 0) {
+                sum += values[i];
+            }
+        }
+        return sum;
+    }
+
+    public void clear() {
+        // Drop the package names so they can be collected, the primitives are overwritten
+        Arrays.fill(packageNames, 0, count, null);
+        count = 0;
+    }
+}
@@ -0,0 +1,77 @@
+package com.blackcj.fitdata.database;
+
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.data.Field;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Chris Black
+ *
+ * Converts Google Fit data sets to {@link DataRecords}. A converter is registered per data type
+ * and looked up once per data set, so the points themselves are copied in a single pass without
+ * walking their fields or comparing names.
+ */
+public class DataSetConverters {
+
+    private static final Map<DataType, Converter> CONVERTERS = new HashMap<>();
+
+    static {
+        register(DataType.TYPE_ACTIVITY_SEGMENT, new IntFieldConverter(Field.FIELD_ACTIVITY, true));
+        register(DataType.TYPE_STEP_COUNT_DELTA, new IntFieldConverter(Field.FIELD_STEPS, false));
+    }
+
+    private DataSetConverters() {
+    }
+
+    public static void register(DataType dataType, Converter converter) {
+        CONVERTERS.put(dataType, converter);
+    }
+
+    /**
+     * Append the points of a data set to the records.
+     *
+     * @return false if there is no converter for the data type, nothing is added
+     */
+    public static boolean convert(DataSet dataSet, DataRecords records) {
+        Converter converter = CONVERTERS.get(dataSet.getDataType());
+        if (converter == null) {
+            return false;
+        }
+        converter.convert(dataSet, records);
+        return true;
+    }
+
+    public interface Converter {
+        void convert(DataSet dataSet, DataRecords records);
+    }
+
+    /**
+     * Copies a single int field of every point, optionally with the package that recorded it.
+     */
+    public static class IntFieldConverter implements Converter {
+        private final Field mField;
+        private final boolean mKeepPackageName;
+
+        public IntFieldConverter(Field field, boolean keepPackageName) {
+            mField = field;
+            mKeepPackageName = keepPackageName;
+        }
+
+        @Override
+        public void convert(DataSet dataSet, DataRecords records) {
+            List<DataPoint> dataPoints = dataSet.getDataPoints();
+            records.ensureCapacity(records.count + dataPoints.size());
+            for (DataPoint dp : dataPoints) {
+                String packageName = mKeepPackageName ? dp.getOriginalDataSource().getAppPackageName() : null;
+                records.add(dp.getStartTime(TimeUnit.MILLISECONDS), dp.getEndTime(TimeUnit.MILLISECONDS),
+                        dp.getValue(mField).asInt(), packageName);
+            }
+        }
+    }
+}
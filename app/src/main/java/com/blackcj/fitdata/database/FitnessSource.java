@@ -0,0 +1,131 @@
+package com.blackcj.fitdata.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Chris Black
+ *
+ * Everything the sync needs from a fitness backend: reading steps and activity segments,
+ * inserting and deleting data and managing recording subscriptions.
+ *
+ * Results are returned as plain Java records rather than Google Fit types so an implementation
+ * does not need Play Services or a device. {@link GoogleFitnessSource} talks to Google Fit, the
+ * unit tests run the sync against a fake that synthesizes data in memory.
+ *
+ * The read and insert calls block and must be made from a background thread. The delete and
+ * subscription calls return through a callback.
+ */
+public interface FitnessSource {
+
+    int STATUS_SUCCESS = 0;
+    int STATUS_INTERRUPTED = 14;
+    int STATUS_ERROR = 13;
+
+    /**
+     * Read the step count estimate in day long buckets, starting at startTime.
+     */
+    StepBucketResult readDailySteps(long startTime, long endTime);
+
+    /**
+     * Read the activity segments that overlap the range.
+     *
+     * @param serverQueries also read data that is only stored in the cloud
+     * @param timeoutMinutes how long to wait for the result
+     */
+    SegmentResult readActivitySegments(long startTime, long endTime, boolean serverQueries, long timeoutMinutes);
+
+    /**
+     * Read the raw step count deltas that overlap the range.
+     */
+    StepDeltaResult readStepDeltas(long startTime, long endTime);
+
+    /**
+     * Insert a session with an activity segment and a step count.
+     */
+    Result insertSession(long startTime, long endTime, int activityType, int stepCount);
+
+    /**
+     * Insert an activity segment without a session.
+     */
+    Result insertActivity(long startTime, long endTime, int activityType);
+
+    /**
+     * Delete all data and sessions in the range. Only data inserted by this app can be deleted.
+     */
+    void deleteData(long startTime, long endTime, Callback<Result> callback);
+
+    void subscribe(String dataTypeName, Callback<Result> callback);
+
+    void unsubscribe(String dataTypeName, Callback<Result> callback);
+
+    /**
+     * Remove every subscription. The callback is called once per subscription.
+     */
+    void unsubscribeAll(Callback<Result> callback);
+
+    /**
+     * List the data type names with an active subscription.
+     */
+    void listSubscriptions(Callback<List<String>> callback);
+
+    interface Callback<T> {
+        void onResult(T result);
+    }
+
+    class Result {
+        public int statusCode = STATUS_SUCCESS;
+        public String statusMessage;
+
+        public boolean isSuccess() {
+            // Matches Google Play Services, negative codes are successful variants
+            return statusCode <= 0;
+        }
+
+        public void setStatus(int statusCode, String statusMessage) {
+            this.statusCode = statusCode;
+            this.statusMessage = statusMessage;
+        }
+    }
+
+    /**
+     * Day bucketed step counts. Each bucket is identified by its midpoint.
+     */
+    class StepBucketResult extends Result {
+        public long[] bucketTimes = new long[0];
+        public int[] bucketSteps = new int[0];
+
+        public int getTotalSteps() {
+            int total = 0;
+            for (int steps : bucketSteps) {
+                total += steps;
+            }
+            return total;
+        }
+    }
+
+    class SegmentResult extends Result {
+        public List<Segment> segments = new ArrayList<>();
+    }
+
+    class StepDeltaResult extends Result {
+        public int count = 0;
+        public long[] startTimes = new long[0];
+        public long[] endTimes = new long[0];
+        public int[] steps = new int[0];
+    }
+
+    class Segment {
+        public final long start;
+        public final long end;
+        public final int activityType;
+        public final String packageName;
+
+        public Segment(long start, long end, int activityType, String packageName) {
+            this.start = start;
+            this.end = end;
+            this.activityType = activityType;
+            this.packageName = packageName;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.blackcj.fitdata.database;
+
+/**
+ * Created by Chris Black
+ *
+ * Reads step counts for the {@link StepBackfill} from a {@link FitnessSource}. Remembers the
+ * last failed result so the sync can report it once the backfill stops.
+ */
+class FitnessStepReader implements StepBackfill.StepReader, StepBackfill.BulkStepReader {
+
+    private final FitnessSource mSource;
+    private volatile FitnessSource.Result mFailedStatus;
+
+    FitnessStepReader(FitnessSource source) {
+        mSource = source;
+    }
+
+    /**
+     * @return Result of the last read that failed or null if none did
+     */
+    public FitnessSource.Result getFailedStatus() {
+        return mFailedStatus;
+    }
+
+    /**
+     * Called from the backfill worker threads.
+     */
+    @Override
+    public int readSteps(long startTime, long endTime) {
+        FitnessSource.StepBucketResult result = mSource.readDailySteps(startTime, endTime);
+        if (!result.isSuccess()) {
+            mFailedStatus = result;
+            return StepBackfill.READ_FAILED;
+        }
+        return result.getTotalSteps();
+    }
+
+    @Override
+    public int[] readStepBuckets(long[] boundaries) {
+        FitnessSource.StepBucketResult result = mSource.readDailySteps(boundaries[0], boundaries[boundaries.length - 1]);
+        if (!result.isSuccess()) {
+            mFailedStatus = result;
+            return null;
+        }
+        return StepBackfill.demultiplex(boundaries, result.bucketTimes, result.bucketSteps);
+    }
+}
@@ -0,0 +1,225 @@
+package com.blackcj.fitdata.database;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.blackcj.fitdata.model.WorkoutTypes;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.fitness.Fitness;
+import com.google.android.gms.fitness.data.Bucket;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.data.Device;
+import com.google.android.gms.fitness.data.Subscription;
+import com.google.android.gms.fitness.request.DataDeleteRequest;
+import com.google.android.gms.fitness.request.DataReadRequest;
+import com.google.android.gms.fitness.result.DataReadResult;
+import com.google.android.gms.fitness.result.ListSubscriptionsResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Chris Black
+ *
+ * {@link FitnessSource} backed by the Google Fit History, Sessions and Recording APIs. The
+ * client is owned by {@link DataManager}, which takes care of connecting it.
+ */
+public class GoogleFitnessSource implements FitnessSource {
+
+    private static final String TAG = "GoogleFitnessSource";
+
+    private final Context mContext;
+    private final GoogleApiClient mClient;
+
+    public GoogleFitnessSource(Context context, GoogleApiClient client) {
+        mContext = context.getApplicationContext();
+        mClient = client;
+    }
+
+    @Override
+    public StepBucketResult readDailySteps(long startTime, long endTime) {
+        DataReadRequest readRequest = DataQueries.queryStepEstimate(startTime, endTime);
+        DataReadResult dataReadResult = Fitness.HistoryApi.readData(mClient, readRequest).await(5, TimeUnit.MINUTES);
+        StepBucketResult result = new StepBucketResult();
+        copyStatus(dataReadResult.getStatus(), result);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        List<Bucket> buckets = dataReadResult.getBuckets();
+        result.bucketTimes = new long[buckets.size()];
+        result.bucketSteps = new int[buckets.size()];
+        DataRecords records = new DataRecords();
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket bucket = buckets.get(i);
+            result.bucketTimes[i] = (bucket.getStartTime(TimeUnit.MILLISECONDS) + bucket.getEndTime(TimeUnit.MILLISECONDS)) / 2;
+            records.clear();
+            for (DataSet dataSet : bucket.getDataSets()) {
+                DataSetConverters.convert(dataSet, records);
+            }
+            result.bucketSteps[i] = records.sumPositiveValues();
+        }
+        return result;
+    }
+
+    @Override
+    public SegmentResult readActivitySegments(long startTime, long endTime, boolean serverQueries, long timeoutMinutes) {
+        DataReadRequest readRequest = DataQueries.queryActivitySegment(startTime, endTime, serverQueries);
+        DataReadResult dataReadResult = Fitness.HistoryApi.readData(mClient, readRequest).await(timeoutMinutes, TimeUnit.MINUTES);
+        SegmentResult result = new SegmentResult();
+        copyStatus(dataReadResult.getStatus(), result);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        DataRecords records = readRecords(dataReadResult, DataType.TYPE_ACTIVITY_SEGMENT);
+        result.segments = new ArrayList<>(records.count);
+        for (int i = 0; i < records.count; i++) {
+            result.segments.add(new Segment(records.startTimes[i], records.endTimes[i], records.values[i], records.packageNames[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public StepDeltaResult readStepDeltas(long startTime, long endTime) {
+        DataReadRequest readRequest = DataQueries.queryStepDeltas(startTime, endTime);
+        DataReadResult dataReadResult = Fitness.HistoryApi.readData(mClient, readRequest).await(5, TimeUnit.MINUTES);
+        StepDeltaResult result = new StepDeltaResult();
+        copyStatus(dataReadResult.getStatus(), result);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        // The columns are handed over as they are, no copy
+        DataRecords records = readRecords(dataReadResult, DataType.TYPE_STEP_COUNT_DELTA);
+        result.count = records.count;
+        result.startTimes = records.startTimes;
+        result.endTimes = records.endTimes;
+        result.steps = records.values;
+        return result;
+    }
+
+    @Override
+    public Result insertSession(long startTime, long endTime, int activityType, int stepCount) {
+        Device device = Device.getLocalDevice(mContext);
+        Status status = Fitness.SessionsApi.insertSession(mClient, DataQueries.createSession(startTime, endTime,
+                stepCount, WorkoutTypes.getActivityTextById(activityType), mContext.getPackageName(), device))
+                .await(1, TimeUnit.MINUTES);
+        return copyStatus(status, new Result());
+    }
+
+    @Override
+    public Result insertActivity(long startTime, long endTime, int activityType) {
+        Device device = Device.getLocalDevice(mContext);
+        Status status = Fitness.HistoryApi.insertData(mClient, DataQueries.createActivityDataSet(startTime, endTime,
+                WorkoutTypes.getActivityTextById(activityType), mContext.getPackageName(), device))
+                .await(10, TimeUnit.MINUTES);
+        return copyStatus(status, new Result());
+    }
+
+    @Override
+    public void deleteData(long startTime, long endTime, Callback<Result> callback) {
+        // https://developers.google.com/android/reference/com/google/android/gms/fitness/request/DataDeleteRequest
+        DataDeleteRequest request = new DataDeleteRequest.Builder()
+                .setTimeInterval(startTime, endTime, TimeUnit.MILLISECONDS)
+                .deleteAllData()
+                .deleteAllSessions()
+                .build();
+        Fitness.HistoryApi.deleteData(mClient, request).setResultCallback(statusCallback(callback));
+    }
+
+    @Override
+    public void subscribe(String dataTypeName, Callback<Result> callback) {
+        DataType dataType = getDataType(dataTypeName);
+        if (dataType == null) {
+            callback.onResult(unsupported(dataTypeName));
+            return;
+        }
+        Fitness.RecordingApi.subscribe(mClient, dataType).setResultCallback(statusCallback(callback));
+    }
+
+    @Override
+    public void unsubscribe(String dataTypeName, Callback<Result> callback) {
+        DataType dataType = getDataType(dataTypeName);
+        if (dataType == null) {
+            callback.onResult(unsupported(dataTypeName));
+            return;
+        }
+        Fitness.RecordingApi.unsubscribe(mClient, dataType).setResultCallback(statusCallback(callback));
+    }
+
+    @Override
+    public void unsubscribeAll(final Callback<Result> callback) {
+        Fitness.RecordingApi.listSubscriptions(mClient).setResultCallback(new ResultCallback<ListSubscriptionsResult>() {
+            @Override
+            public void onResult(ListSubscriptionsResult result) {
+                for (Subscription sc : result.getSubscriptions()) {
+                    Log.i(TAG, "Unsubscribing: " + sc.getDataType().getName());
+                    Fitness.RecordingApi.unsubscribe(mClient, sc).setResultCallback(statusCallback(callback));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void listSubscriptions(final Callback<List<String>> callback) {
+        Fitness.RecordingApi.listSubscriptions(mClient).setResultCallback(new ResultCallback<ListSubscriptionsResult>() {
+            @Override
+            public void onResult(ListSubscriptionsResult result) {
+                List<String> dataTypeNames = new ArrayList<>();
+                for (Subscription sc : result.getSubscriptions()) {
+                    dataTypeNames.add(sc.getDataType().getName());
+                }
+                callback.onResult(dataTypeNames);
+            }
+        });
+    }
+
+    /**
+     * Convert every data set of the expected type in a single pass.
+     */
+    private static DataRecords readRecords(DataReadResult dataReadResult, DataType dataType) {
+        List<DataSet> dataSets = dataReadResult.getDataSets();
+        int size = 0;
+        for (DataSet dataSet : dataSets) {
+            size += dataSet.getDataPoints().size();
+        }
+        DataRecords records = new DataRecords(size);
+        for (DataSet dataSet : dataSets) {
+            if (dataType.equals(dataSet.getDataType())) {
+                DataSetConverters.convert(dataSet, records);
+            }
+        }
+        return records;
+    }
+
+    private static DataType getDataType(String dataTypeName) {
+        if (DataType.TYPE_STEP_COUNT_DELTA.getName().equals(dataTypeName)) {
+            return DataType.TYPE_STEP_COUNT_DELTA;
+        } else if (DataType.TYPE_ACTIVITY_SEGMENT.getName().equals(dataTypeName)) {
+            return DataType.TYPE_ACTIVITY_SEGMENT;
+        }
+        return null;
+    }
+
+    private static Result unsupported(String dataTypeName) {
+        Result result = new Result();
+        result.setStatus(STATUS_ERROR, "Unsupported data type: " + dataTypeName);
+        return result;
+    }
+
+    private static ResultCallback<Status> statusCallback(final Callback<Result> callback) {
+        return new ResultCallback<Status>() {
+            @Override
+            public void onResult(Status status) {
+                callback.onResult(copyStatus(status, new Result()));
+            }
+        };
+    }
+
+    private static <T extends Result> T copyStatus(Status status, T result) {
+        result.setStatus(status.getStatusCode(), status.getStatusMessage());
+        return result;
+    }
+}
@@ -1,7 +1,7 @@
 package com.blackcj.fitdata.database;
 
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
@@ -14,8 +14,12 @@ import android.util.Log;
  * enhanced SQLiteOpenHelper for android applications where several threads might access and close the same database<br>
  * <p>
  * With SQLiteOpenHelper, if one thread is closing database, then other threads will crash while accessing a closed database.<br>
- * With MultiThreadSQLiteOpenHelper, a thread does not close the database anymore, but asks for a close with the closeIfNeeded method.
- * It then verifies that each thread asked for closing before really closing the database.
+ * With MultiThreadSQLiteOpenHelper, nobody closes the database directly. Each user takes a {@link Lease} with
+ * {@link #acquire()} and closes the lease when it is done. The database is closed when the last lease is closed
+ * and opened again by the next acquire.
+ * <p>
+ * Leases are counted, not threads, so a database used from a thread pool is closed as soon as the work is done and
+ * never while a lease is still open. Acquiring and releasing while other leases are open doesn't take a lock.
  *
  * @author d4rxh4wx
  *
@@ -24,9 +28,10 @@ public abstract class MultiThreadSQLiteOpenHelper extends SQLiteOpenHelper {
 
     private final static String TAG = "MULTI-THREAD-DB-HELPER";
 
-    // Tells for each thread if it requires that database should be opened or not opened (closed)
-    // Using WeakHashMap so that thread can be released by GC when needed (no strong references on threads)
-    private WeakHashMap<Thread, Boolean> states = new WeakHashMap<>();
+    // Number of open leases, -1 while the database is being closed
+    private final AtomicInteger leaseCount = new AtomicInteger();
+    // Only changed while holding the lock, valid whenever leaseCount is above 0
+    private volatile SQLiteDatabase database;
 
     public MultiThreadSQLiteOpenHelper(Context context, String name,
                                        CursorFactory factory, int version) {
@@ -34,59 +39,76 @@ public abstract class MultiThreadSQLiteOpenHelper extends SQLiteOpenHelper {
         Log.d(TAG, "database helper built");
     }
 
-    public SQLiteDatabase getWritableDatabase() {
-        // synchronized because it may be accessible by multi threads (all dbHelper methods are synchronized)
-        // and synchronized on the object because open/close are related on each other
+    /**
+     * Take a lease on the database, opening it if needed. The database stays open until the lease is closed.
+     *
+     * @return Open lease, must be closed when done
+     */
+    public Lease acquire() {
+        // Fast path: the database is held open by another lease
+        int count;
+        while ((count = leaseCount.get()) > 0) {
+            if (leaseCount.compareAndSet(count, count + 1)) {
+                return new Lease(database);
+            }
+        }
+        // synchronized on the object because open/close are related on each other
         synchronized(this) {
-            Thread currentThread = Thread.currentThread();
-
-            states.put(currentThread, true);  // this thread requires that this database should be opened
+            if (leaseCount.get() == 0) {
+                Log.d(TAG, "opening database");
+                database = super.getWritableDatabase();
+            }
+            leaseCount.incrementAndGet();
+            return new Lease(database);
+        }
+    }
 
-            Log.d(TAG, "getting database");
+    /**
+     * @return Number of leases that are currently open
+     */
+    public int getLeaseCount() {
+        return Math.max(leaseCount.get(), 0);
+    }
 
-            return super.getWritableDatabase();
+    private void release() {
+        if (leaseCount.decrementAndGet() == 0) {
+            synchronized(this) {
+                // A new lease may have been taken since, only close if there is still none
+                if (leaseCount.compareAndSet(0, -1)) {
+                    database = null;
+                    super.close();
+                    Log.d(TAG, "database is closed");
+                    leaseCount.set(0);
+                }
+            }
         }
     }
 
     /**
-     * Close database if all threads don't need the database anymore
-     * @return true if closed, false otherwise
+     * Keeps the database open until closed. Closing a lease more than once has no effect.
      */
-    public boolean closeIfNeeded() {
-        // synchronized because it may be accessible by multi threads (all dbHelper methods are synchronized)
-        // and synchronized on the object because open/close are related on each other
-        synchronized(this) {
-            Thread currentThread = Thread.currentThread();
-
-            Log.d(TAG, "requesting closing");
+    public class Lease implements AutoCloseable {
 
-            states.put(currentThread, false); // this thread requires that this database should be closed
+        private final SQLiteDatabase db;
+        private final AtomicBoolean closed = new AtomicBoolean();
 
-            boolean mustBeClosed = true;
+        private Lease(SQLiteDatabase db) {
+            this.db = db;
+        }
 
-            // if all threads asked for closing database, then close it
-            Boolean opened = null;
-            Thread thread = null;
-            for (Map.Entry<Thread, Boolean> entry : states.entrySet()) {
-                thread = entry.getKey();
-                opened = entry.getValue();
-                if (thread != null && opened != null) {
-                    Log.d(TAG, String.format("Thread [%s] requires database must be %s", thread.getId(), opened.booleanValue() ? "OPENED" : "CLOSED"));
-                    if (opened.booleanValue()) {
-                        // one thread still requires that database should be opened
-                        mustBeClosed = false;
-                    }
-                }
-            }
+        public SQLiteDatabase getDatabase() {
+            return db;
+        }
 
-            Log.d(TAG, mustBeClosed ? "database must be closed" : "database still needs to be opened");
+        public boolean isClosed() {
+            return closed.get();
+        }
 
-            if (mustBeClosed) {
-                super.close();
-                Log.d(TAG, "database is closed");
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release();
             }
-
-            return mustBeClosed;
         }
     }
 }
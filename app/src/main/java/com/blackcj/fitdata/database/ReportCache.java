@@ -0,0 +1,111 @@
+package com.blackcj.fitdata.database;
+
+import com.blackcj.fitdata.Utilities;
+import com.blackcj.fitdata.model.Workout;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Chris Black
+ *
+ * Finished reports kept in memory per time frame, so switching between tabs doesn't read the
+ * database again when nothing changed. A report is only returned on the day it was built, time
+ * frames move with the day.
+ *
+ * {@link DataManager} drops the reports that overlap every range it writes. A report built while
+ * a write was announced is not kept, it may have missed the change.
+ */
+public class ReportCache {
+
+    private static final Map<Utilities.TimeFrame, Entry> sReports = new EnumMap<>(Utilities.TimeFrame.class);
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+    private static final AtomicInteger sHits = new AtomicInteger();
+    private static final AtomicInteger sMisses = new AtomicInteger();
+
+    private ReportCache() {
+    }
+
+    private static class Entry {
+        final long day;
+        final long startTime;
+        final long endTime;
+        final ArrayList<Workout> report;
+
+        Entry(long day, long startTime, long endTime, ArrayList<Workout> report) {
+            this.day = day;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.report = report;
+        }
+    }
+
+    /**
+     * @return Copy of the report built today for the time frame or null if there is none
+     */
+    public static ArrayList<Workout> get(Utilities.TimeFrame timeFrame) {
+        long day = DailyRollup.getDayStart(System.currentTimeMillis());
+        Entry entry;
+        synchronized (sReports) {
+            entry = sReports.get(timeFrame);
+        }
+        if (entry == null || entry.day != day) {
+            sMisses.incrementAndGet();
+            return null;
+        }
+        sHits.incrementAndGet();
+        return new ArrayList<>(entry.report);
+    }
+
+    /**
+     * Read before building a report and hand to {@link #put}, so a report that raced with a write
+     * isn't kept.
+     */
+    public static int getGeneration() {
+        return sGeneration.get();
+    }
+
+    /**
+     * Keep a report that covers the range, unless data changed since the generation was read.
+     */
+    public static void put(Utilities.TimeFrame timeFrame, long startTime, long endTime, ArrayList<Workout> report, int generation) {
+        // Every time frame but last month runs up to now, later writes land in it too
+        if (timeFrame != Utilities.TimeFrame.LAST_MONTH) {
+            endTime = Long.MAX_VALUE;
+        }
+        Entry entry = new Entry(DailyRollup.getDayStart(System.currentTimeMillis()), startTime, endTime,
+                new ArrayList<>(report));
+        synchronized (sReports) {
+            if (sGeneration.get() == generation) {
+                sReports.put(timeFrame, entry);
+            }
+        }
+    }
+
+    /**
+     * Drop the reports that overlap the range.
+     */
+    public static void invalidate(long startTime, long endTime) {
+        synchronized (sReports) {
+            sGeneration.incrementAndGet();
+            Iterator<Entry> i = sReports.values().iterator();
+            while (i.hasNext()) {
+                Entry entry = i.next();
+                if (entry.startTime < endTime && startTime < entry.endTime) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    public static int getHitCount() {
+        return sHits.get();
+    }
+
+    public static int getMissCount() {
+        return sMisses.get();
+    }
+}
@@ -0,0 +1,172 @@
+package com.blackcj.fitdata.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Chris Black
+ *
+ * Months of {@link DailyRollup} rows kept in memory for charts that load the range on screen as
+ * it is panned. Months that aren't cached are read with a single query, the least recently used
+ * ones are dropped once more than {@link #MAX_MONTHS} are kept.
+ *
+ * Months that hold changed days are dropped along with the shared rollup store.
+ */
+public class RollupMonthCache {
+
+    private static final int MAX_MONTHS = 24;
+
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+    private static final Map<Long, Month> sMonths = new LinkedHashMap<Long, Month>(MAX_MONTHS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Month> eldest) {
+            return size() > MAX_MONTHS;
+        }
+    };
+
+    private RollupMonthCache() {
+    }
+
+    /**
+     * Rows of the daily rollup for one month. Not changed once it is cached.
+     */
+    public static class Month {
+        public final long start;
+        public int size = 0;
+        public long[] days = new long[32];
+        public int[] types = new int[32];
+        public long[] durations = new long[32];
+        public long[] steps = new long[32];
+
+        Month(long start) {
+            this.start = start;
+        }
+
+        void add(long day, int type, long duration, long stepCount) {
+            if (size == days.length) {
+                int capacity = size * 2;
+                days = Arrays.copyOf(days, capacity);
+                types = Arrays.copyOf(types, capacity);
+                durations = Arrays.copyOf(durations, capacity);
+                steps = Arrays.copyOf(steps, capacity);
+            }
+            days[size] = day;
+            types[size] = type;
+            durations[size] = duration;
+            steps[size] = stepCount;
+            size++;
+        }
+    }
+
+    /**
+     * Get every month that overlaps the range, reading the ones that aren't cached.
+     *
+     * @param months Receives the months, cleared first. Rows outside the range are included.
+     */
+    public static void read(SQLiteDatabase db, long startTime, long endTime, List<Month> months) {
+        months.clear();
+        int generation = sGeneration.get();
+        long missingStart = -1;
+        long missingEnd = -1;
+        List<Month> cached = new ArrayList<>();
+        synchronized (sMonths) {
+            for (long month = getMonthStart(startTime); month < endTime; month = getNextMonth(month)) {
+                Month value = sMonths.get(month);
+                if (value != null) {
+                    cached.add(value);
+                } else {
+                    if (missingStart < 0) {
+                        missingStart = month;
+                    }
+                    missingEnd = getNextMonth(month);
+                }
+            }
+        }
+        if (missingStart < 0) {
+            months.addAll(cached);
+            return;
+        }
+
+        // Cached months between the first and last missing one are read again with the rest
+        List<Month> loaded = load(db, missingStart, missingEnd);
+        for (Month month : cached) {
+            if (month.start < missingStart || month.start >= missingEnd) {
+                months.add(month);
+            }
+        }
+        months.addAll(loaded);
+        synchronized (sMonths) {
+            // Don't keep months that may have missed a change made while they were loading
+            if (sGeneration.get() == generation) {
+                for (Month month : loaded) {
+                    sMonths.put(month.start, month);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the cached months that overlap the range.
+     */
+    public static void invalidate(long startTime, long endTime) {
+        synchronized (sMonths) {
+            sGeneration.incrementAndGet();
+            Iterator<Long> i = sMonths.keySet().iterator();
+            while (i.hasNext()) {
+                long month = i.next();
+                if (month < endTime && startTime < getNextMonth(month)) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    private static List<Month> load(SQLiteDatabase db, long startTime, long endTime) {
+        List<Month> months = new ArrayList<>();
+        for (long month = startTime; month < endTime; month = getNextMonth(month)) {
+            months.add(new Month(month));
+        }
+        Cursor cursor = db.rawQuery("SELECT day, type, duration, steps FROM " + DailyRollup.TABLE
+                + " WHERE day >= ? AND day < ? ORDER BY day", new String[] { "" + startTime, "" + endTime });
+        try {
+            int index = 0;
+            while (cursor.moveToNext()) {
+                long day = cursor.getLong(0);
+                while (index + 1 < months.size() && day >= months.get(index + 1).start) {
+                    index++;
+                }
+                months.get(index).add(day, cursor.getInt(1), cursor.getLong(2), cursor.getLong(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return months;
+    }
+
+    private static long getMonthStart(long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.DAY_OF_MONTH, 1);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+    private static long getNextMonth(long month) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(month);
+        cal.add(Calendar.MONTH, 1);
+        return cal.getTimeInMillis();
+    }
+}
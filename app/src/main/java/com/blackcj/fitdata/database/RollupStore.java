@@ -0,0 +1,223 @@
+package com.blackcj.fitdata.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Chris Black
+ *
+ * Activity totals by day, ISO week, month and year, built from the rows of {@link DailyRollup}.
+ * A range is answered by combining the fewest buckets that cover it: whole years first, then
+ * whole months in what is left at either end, then whole weeks, then single days. A year to date
+ * report reads a handful of buckets instead of one row per day.
+ *
+ * Ranges are widened to whole local days, a range ending part way through today includes all of
+ * today. Only uses plain Java so it runs on a desktop JVM.
+ */
+public class RollupStore {
+
+    public static final int DAY = 0;
+    public static final int WEEK = 1;
+    public static final int MONTH = 2;
+    public static final int YEAR = 3;
+
+    private final List<Map<Long, Totals>> mLevels = new ArrayList<>();
+    private final Calendar mCal = Calendar.getInstance();
+
+    public RollupStore() {
+        for (int level = DAY; level <= YEAR; level++) {
+            mLevels.add(new HashMap<Long, Totals>());
+        }
+    }
+
+    /**
+     * Add one row of the daily rollup to every level.
+     *
+     * @param day Local midnight of the day
+     */
+    public synchronized void addDay(long day, int type, long duration, long steps, int count) {
+        for (int level = DAY; level <= YEAR; level++) {
+            long bucket = floor(level, day);
+            Totals totals = mLevels.get(level).get(bucket);
+            if (totals == null) {
+                totals = new Totals();
+                mLevels.get(level).put(bucket, totals);
+            }
+            totals.add(type, duration, steps, count, day);
+        }
+    }
+
+    /**
+     * Add up every activity type in the range.
+     *
+     * @param totals Receives the sums, cleared first
+     * @return Number of buckets that were combined
+     */
+    public synchronized int query(long startTime, long endTime, Totals totals) {
+        totals.clear();
+        long start = floor(DAY, startTime);
+        long end = floor(DAY, endTime);
+        if (end < endTime) {
+            end = next(DAY, end);
+        }
+        return start < end ? cover(start, end, YEAR, totals) : 0;
+    }
+
+    /**
+     * @return Number of buckets stored at the level
+     */
+    public synchronized int getBucketCount(int level) {
+        return mLevels.get(level).size();
+    }
+
+    private int cover(long start, long end, int level, Totals totals) {
+        if (level == DAY) {
+            int buckets = 0;
+            for (long day = start; day < end; day = next(DAY, day)) {
+                buckets += addBucket(DAY, day, totals);
+            }
+            return buckets;
+        }
+        long first = floor(level, start);
+        if (first < start) {
+            first = next(level, first);
+        }
+        long last = first;
+        int buckets = 0;
+        while (last < end) {
+            long bucketEnd = next(level, last);
+            if (bucketEnd > end) {
+                break;
+            }
+            buckets += addBucket(level, last, totals);
+            last = bucketEnd;
+        }
+        if (last == first) {
+            // Not a single whole bucket at this level
+            return cover(start, end, level - 1, totals);
+        }
+        if (start < first) {
+            buckets += cover(start, first, level - 1, totals);
+        }
+        if (last < end) {
+            buckets += cover(last, end, level - 1, totals);
+        }
+        return buckets;
+    }
+
+    private int addBucket(int level, long bucket, Totals totals) {
+        Totals bucketTotals = mLevels.get(level).get(bucket);
+        if (bucketTotals == null) {
+            return 0;
+        }
+        totals.addAll(bucketTotals);
+        return 1;
+    }
+
+    /**
+     * @return Start of the bucket at the level that contains the time
+     */
+    long floor(int level, long time) {
+        mCal.setTimeInMillis(time);
+        mCal.set(Calendar.HOUR_OF_DAY, 0);
+        mCal.set(Calendar.MINUTE, 0);
+        mCal.set(Calendar.SECOND, 0);
+        mCal.set(Calendar.MILLISECOND, 0);
+        switch (level) {
+            case WEEK:
+                // ISO weeks start on Monday
+                int daysSinceMonday = (mCal.get(Calendar.DAY_OF_WEEK) - Calendar.MONDAY + 7) % 7;
+                mCal.add(Calendar.DAY_OF_MONTH, -daysSinceMonday);
+                break;
+            case MONTH:
+                mCal.set(Calendar.DAY_OF_MONTH, 1);
+                break;
+            case YEAR:
+                mCal.set(Calendar.DAY_OF_YEAR, 1);
+                break;
+        }
+        return mCal.getTimeInMillis();
+    }
+
+    /**
+     * @return Start of the bucket after the one that starts at the given time
+     */
+    long next(int level, long bucket) {
+        mCal.setTimeInMillis(bucket);
+        switch (level) {
+            case DAY:
+                mCal.add(Calendar.DAY_OF_MONTH, 1);
+                break;
+            case WEEK:
+                mCal.add(Calendar.DAY_OF_MONTH, 7);
+                break;
+            case MONTH:
+                mCal.add(Calendar.MONTH, 1);
+                break;
+            case YEAR:
+                mCal.add(Calendar.YEAR, 1);
+                break;
+        }
+        return mCal.getTimeInMillis();
+    }
+
+    /**
+     * Sums per activity type. Only a handful of types show up in practice so they are kept in
+     * small parallel arrays.
+     */
+    public static class Totals {
+        public int size = 0;
+        public int[] types = new int[8];
+        public long[] durations = new long[8];
+        public long[] steps = new long[8];
+        public int[] counts = new int[8];
+        public long[] firstDays = new long[8];
+
+        public void add(int type, long duration, long stepCount, int count, long firstDay) {
+            int index = indexOf(type);
+            if (index < 0) {
+                if (size == types.length) {
+                    int capacity = size * 2;
+                    types = Arrays.copyOf(types, capacity);
+                    durations = Arrays.copyOf(durations, capacity);
+                    steps = Arrays.copyOf(steps, capacity);
+                    counts = Arrays.copyOf(counts, capacity);
+                    firstDays = Arrays.copyOf(firstDays, capacity);
+                }
+                index = size++;
+                types[index] = type;
+                durations[index] = 0;
+                steps[index] = 0;
+                counts[index] = 0;
+                firstDays[index] = firstDay;
+            }
+            durations[index] += duration;
+            steps[index] += stepCount;
+            counts[index] += count;
+            firstDays[index] = Math.min(firstDays[index], firstDay);
+        }
+
+        public void addAll(Totals other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.types[i], other.durations[i], other.steps[i], other.counts[i], other.firstDays[i]);
+            }
+        }
+
+        public int indexOf(int type) {
+            for (int i = 0; i < size; i++) {
+                if (types[i] == type) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+    }
+}
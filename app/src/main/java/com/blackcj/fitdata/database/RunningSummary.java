@@ -0,0 +1,166 @@
+package com.blackcj.fitdata.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.blackcj.fitdata.Utilities;
+import com.blackcj.fitdata.model.SummaryData;
+import com.blackcj.fitdata.model.WorkoutTypes;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by Chris Black
+ *
+ * Running totals per activity type for today, this week and the {@link #TRAILING_DAYS} days
+ * before today, kept in memory for the summary on the detail page.
+ *
+ * The days are read from the {@link DailyRollup} once a day. When data changes only the days in
+ * the changed range are marked, and the next summary reads those days again and swaps their old
+ * totals out of the running sums. A summary is then answered from the sums without a query.
+ */
+public class RunningSummary {
+
+    public static final int TRAILING_DAYS = 28;
+
+    public static final RunningSummary INSTANCE = new RunningSummary();
+
+    private final Map<Long, RollupStore.Totals> mDays = new HashMap<>();
+    private final RollupStore.Totals mWeek = new RollupStore.Totals();
+    private final RollupStore.Totals mTrailing = new RollupStore.Totals();
+    private final RollupStore.Totals mEmpty = new RollupStore.Totals();
+    /** Local midnight of the day the sums were built on, -1 when they have to be built. */
+    private long mToday = -1;
+    private long mWeekStart;
+    private long mFirstDay;
+    /** Days that changed since they were read, empty when start is not before end. */
+    private long mDirtyStart = Long.MAX_VALUE;
+    private long mDirtyEnd = Long.MIN_VALUE;
+
+    private RunningSummary() {
+    }
+
+    /**
+     * Mark the days that overlap the range so they are read again by the next summary.
+     */
+    public synchronized void invalidate(long startTime, long endTime) {
+        mDirtyStart = Math.min(mDirtyStart, startTime);
+        mDirtyEnd = Math.max(mDirtyEnd, endTime);
+    }
+
+    /**
+     * Fill in the summary of an activity type. Steps for {@link WorkoutTypes#STEP_COUNT}, minutes
+     * of every active workout for {@link WorkoutTypes#TIME}, minutes of the type otherwise.
+     *
+     * @param fromWorkouts Read changed days from the Workout table, for when the rollup needs a rebuild
+     */
+    public synchronized void getSummary(SQLiteDatabase db, boolean fromWorkouts, int workoutType, SummaryData summary) {
+        long today = DailyRollup.getDayStart(System.currentTimeMillis());
+        if (today != mToday) {
+            build(db, fromWorkouts, today);
+        } else if (mDirtyStart < mDirtyEnd) {
+            long start = Math.max(DailyRollup.getDayStart(mDirtyStart), mFirstDay);
+            long end = mDirtyEnd > today ? getNextDay(today) : getNextDay(DailyRollup.getDayStart(mDirtyEnd - 1));
+            clearDirty();
+            if (start < end) {
+                readDays(db, fromWorkouts, start, end);
+            }
+        }
+
+        RollupStore.Totals todayTotals = mDays.get(mToday);
+        long trailing = getValue(mTrailing, workoutType);
+        summary.activityType = workoutType;
+        summary.todayData = getValue(todayTotals != null ? todayTotals : mEmpty, workoutType);
+        summary.weekData = getValue(mWeek, workoutType);
+        summary.averageDailyData = trailing / TRAILING_DAYS;
+        summary.averageWeeklyData = trailing * 7 / TRAILING_DAYS;
+    }
+
+    private void build(SQLiteDatabase db, boolean fromWorkouts, long today) {
+        mToday = today;
+        mWeekStart = DailyRollup.getDayStart(Utilities.getTimeFrameStart(Utilities.TimeFrame.BEGINNING_OF_WEEK));
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(today);
+        cal.add(Calendar.DAY_OF_MONTH, -TRAILING_DAYS);
+        mFirstDay = Math.min(cal.getTimeInMillis(), mWeekStart);
+        mDays.clear();
+        mWeek.clear();
+        mTrailing.clear();
+        clearDirty();
+        readDays(db, fromWorkouts, mFirstDay, getNextDay(today));
+    }
+
+    /**
+     * Read the days in the range again and swap them into the running sums.
+     */
+    private void readDays(SQLiteDatabase db, boolean fromWorkouts, long startDay, long endDay) {
+        Map<Long, RollupStore.Totals> days = new HashMap<>();
+        Cursor cursor = DailyRollup.queryDays(db, startDay, endDay, fromWorkouts);
+        try {
+            while (cursor.moveToNext()) {
+                long day = cursor.getLong(0);
+                RollupStore.Totals totals = days.get(day);
+                if (totals == null) {
+                    totals = new RollupStore.Totals();
+                    days.put(day, totals);
+                }
+                totals.add(cursor.getInt(1), cursor.getLong(2), cursor.getLong(3), cursor.getInt(4), day);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (long day = startDay; day < endDay; day = getNextDay(day)) {
+            RollupStore.Totals old = mDays.remove(day);
+            if (old != null) {
+                addDay(day, old, -1);
+            }
+            RollupStore.Totals totals = days.get(day);
+            if (totals != null) {
+                mDays.put(day, totals);
+                addDay(day, totals, 1);
+            }
+        }
+    }
+
+    private void addDay(long day, RollupStore.Totals totals, int sign) {
+        boolean inWeek = day >= mWeekStart && day <= mToday;
+        boolean inTrailing = day < mToday;
+        for (int i = 0; i < totals.size; i++) {
+            if (inWeek) {
+                mWeek.add(totals.types[i], sign * totals.durations[i], sign * totals.steps[i], sign * totals.counts[i], day);
+            }
+            if (inTrailing) {
+                mTrailing.add(totals.types[i], sign * totals.durations[i], sign * totals.steps[i], sign * totals.counts[i], day);
+            }
+        }
+    }
+
+    private static long getValue(RollupStore.Totals totals, int workoutType) {
+        if (workoutType == WorkoutTypes.STEP_COUNT.getValue()) {
+            int index = totals.indexOf(workoutType);
+            return index >= 0 ? totals.steps[index] : 0;
+        }
+        long duration = 0;
+        for (int i = 0; i < totals.size; i++) {
+            if (workoutType == WorkoutTypes.TIME.getValue() ? WorkoutTypes.isActiveWorkout(totals.types[i])
+                    : totals.types[i] == workoutType) {
+                duration += totals.durations[i];
+            }
+        }
+        return duration / 1000 / 60;
+    }
+
+    private void clearDirty() {
+        mDirtyStart = Long.MAX_VALUE;
+        mDirtyEnd = Long.MIN_VALUE;
+    }
+
+    private static long getNextDay(long day) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(day);
+        cal.add(Calendar.DAY_OF_MONTH, 1);
+        return cal.getTimeInMillis();
+    }
+}
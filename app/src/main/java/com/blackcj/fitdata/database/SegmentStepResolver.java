@@ -0,0 +1,140 @@
+package com.blackcj.fitdata.database;
+
+import java.util.Arrays;
+
+/**
+ * Created by Chris Black
+ *
+ * Assigns step counts to activity segments from a single read of step count deltas. Rather than
+ * asking Google Fit for the steps of every segment, all deltas for the range are collected here
+ * and each segment receives the share of every delta it overlaps.
+ *
+ * Deltas and segments are both sorted by start time so a single sweep finds the deltas for each
+ * segment: O(n log n) for the sorts plus the overlapping deltas themselves.
+ */
+public class SegmentStepResolver {
+
+    private static final int INDEX_BITS = 24;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    private long[] mDeltaStart = new long[64];
+    private long[] mDeltaEnd = new long[64];
+    private int[] mDeltaSteps = new int[64];
+    private int mCount = 0;
+    private boolean mSorted = true;
+
+    public void addDelta(long startTime, long endTime, int steps) {
+        if (steps <= 0) {
+            return;
+        }
+        if (mCount == mDeltaStart.length) {
+            int size = mCount * 2;
+            mDeltaStart = Arrays.copyOf(mDeltaStart, size);
+            mDeltaEnd = Arrays.copyOf(mDeltaEnd, size);
+            mDeltaSteps = Arrays.copyOf(mDeltaSteps, size);
+        }
+        if (mCount > 0 && startTime < mDeltaStart[mCount - 1]) {
+            mSorted = false;
+        }
+        mDeltaStart[mCount] = startTime;
+        mDeltaEnd[mCount] = endTime;
+        mDeltaSteps[mCount] = steps;
+        mCount++;
+    }
+
+    public int getDeltaCount() {
+        return mCount;
+    }
+
+    /**
+     * Calculate the step count for each segment. A delta that only partially overlaps a segment
+     * contributes steps in proportion to the overlap.
+     *
+     * @param segmentStart Start time of each segment in milliseconds
+     * @param segmentEnd End time of each segment in milliseconds
+     * @return Step count for each segment, in the order the segments were given
+     */
+    public int[] resolve(long[] segmentStart, long[] segmentEnd) {
+        int segmentCount = segmentStart.length;
+        int[] stepCounts = new int[segmentCount];
+        if (segmentCount == 0 || mCount == 0) {
+            return stepCounts;
+        }
+        sortDeltas();
+
+        // Latest end time seen so far. Deltas normally don't overlap, but if they do this keeps
+        // the search for the first relevant delta monotonic.
+        long[] maxEnd = new long[mCount];
+        maxEnd[0] = mDeltaEnd[0];
+        for (int i = 1; i < mCount; i++) {
+            maxEnd[i] = Math.max(maxEnd[i - 1], mDeltaEnd[i]);
+        }
+
+        int[] order = sortedOrder(segmentStart, segmentCount);
+        int first = 0;
+        for (int n = 0; n < segmentCount; n++) {
+            int segment = order[n];
+            long start = segmentStart[segment];
+            long end = segmentEnd[segment];
+            while (first < mCount && maxEnd[first] <= start) {
+                first++;
+            }
+            double steps = 0;
+            for (int i = first; i < mCount && mDeltaStart[i] < end; i++) {
+                long deltaDuration = mDeltaEnd[i] - mDeltaStart[i];
+                if (deltaDuration <= 0) {
+                    if (mDeltaStart[i] >= start) {
+                        steps += mDeltaSteps[i];
+                    }
+                    continue;
+                }
+                long overlap = Math.min(end, mDeltaEnd[i]) - Math.max(start, mDeltaStart[i]);
+                if (overlap > 0) {
+                    steps += (double) mDeltaSteps[i] * overlap / deltaDuration;
+                }
+            }
+            stepCounts[segment] = (int) Math.round(steps);
+        }
+        return stepCounts;
+    }
+
+    private void sortDeltas() {
+        if (mSorted) {
+            return;
+        }
+        int[] order = sortedOrder(mDeltaStart, mCount);
+        long[] start = new long[mDeltaStart.length];
+        long[] end = new long[mDeltaEnd.length];
+        int[] steps = new int[mDeltaSteps.length];
+        for (int i = 0; i < mCount; i++) {
+            start[i] = mDeltaStart[order[i]];
+            end[i] = mDeltaEnd[order[i]];
+            steps[i] = mDeltaSteps[order[i]];
+        }
+        mDeltaStart = start;
+        mDeltaEnd = end;
+        mDeltaSteps = steps;
+        mSorted = true;
+    }
+
+    /**
+     * Sort indexes by time without boxing. The offset from the earliest time is packed into the
+     * high bits and the index into the low bits of a single long.
+     */
+    private static int[] sortedOrder(long[] times, int count) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, times[i]);
+        }
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((times[i] - min) << INDEX_BITS) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) (keys[i] & INDEX_MASK);
+        }
+        return order;
+    }
+}
@@ -4,16 +4,30 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import java.util.ArrayDeque;
+
 /**
  * Created by chris.black on 8/5/16.
  *
  * DB helper.
+ *
+ * Writes go through the single connection leased with {@link #acquire(Context)}. The database runs
+ * in write-ahead logging mode, so readers don't wait for the writer; background reads borrow one
+ * of a small pool of read-only connections with {@link #acquireReader(Context)} and hand it back
+ * with {@link #releaseReader(SQLiteDatabase)}.
  */
 public class SimpleDBHelper {
 
     private final static String TAG = "MULTI-THREAD-DB-HELPER";
 
-    private MultiThreadSQLiteOpenHelper dbHelper;
+    public static final int READER_POOL_SIZE = 3;
+
+    private volatile MultiThreadSQLiteOpenHelper dbHelper;
+    // Guards creating the helper, separate from the reader pool so setting up the schema
+    // doesn't hold up readers handing back their connections
+    private final Object helperLock = new Object();
+    private final ArrayDeque<SQLiteDatabase> idleReaders = new ArrayDeque<>();
+    private int readerCount = 0;
 
     public static final SimpleDBHelper INSTANCE = new SimpleDBHelper();
 
@@ -21,25 +35,84 @@ public class SimpleDBHelper {
 
     }
 
-    public SQLiteDatabase open(Context context) {
+    /**
+     * Take a lease on the writable database. The database stays open until the lease is closed.
+     */
+    public MultiThreadSQLiteOpenHelper.Lease acquire(Context context) {
+        return getHelper(context).acquire();
+    }
+
+    /**
+     * Borrow a read-only connection. Blocks while all pooled connections are in use.
+     *
+     * @return Read-only database, must be handed back with {@link #releaseReader(SQLiteDatabase)}
+     */
+    public SQLiteDatabase acquireReader(Context context) {
+        // Set up the schema before taking the pool lock, it only runs for the first caller
+        getHelper(context);
         synchronized(this) {
-            Log.d(TAG, "asking for opening");
-            if (dbHelper == null) {
-                dbHelper = new CupboardSQLiteOpenHelper(context);
+            while (true) {
+                SQLiteDatabase reader = idleReaders.poll();
+                if (reader != null) {
+                    if (reader.isOpen()) {
+                        return reader;
+                    }
+                    readerCount--;
+                    continue;
+                }
+                if (readerCount < READER_POOL_SIZE) {
+                    reader = openReader(context);
+                    readerCount++;
+                    return reader;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    // Don't leave the caller without a connection, open one outside of the pool
+                    Log.w(TAG, "Interrupted waiting for a reader");
+                    readerCount++;
+                    return openReader(context);
+                }
             }
-            return dbHelper.getWritableDatabase(); // getting a cached database
         }
     }
 
-    public void close() {
+    public void releaseReader(SQLiteDatabase reader) {
+        if (reader == null) {
+            return;
+        }
         synchronized(this) {
-            Log.d(TAG, "asking for closing");
-            if (dbHelper != null) {
-                // Ask for closing database
-                if (dbHelper.closeIfNeeded()) {
-                    dbHelper = null; // database closed: free resource for GC
+            if (reader.isOpen() && idleReaders.size() < READER_POOL_SIZE) {
+                idleReaders.push(reader);
+            } else {
+                reader.close();
+                readerCount--;
+            }
+            notifyAll();
+        }
+    }
+
+    private MultiThreadSQLiteOpenHelper getHelper(Context context) {
+        MultiThreadSQLiteOpenHelper helper = dbHelper;
+        if (helper == null) {
+            synchronized(helperLock) {
+                if (dbHelper == null) {
+                    helper = new CupboardSQLiteOpenHelper(context);
+                    // Opening once creates or upgrades the schema and switches the database to
+                    // write-ahead logging, which the read-only connections rely on.
+                    helper.acquire().close();
+                    dbHelper = helper;
                 }
+                helper = dbHelper;
             }
         }
+        return helper;
+    }
+
+    private SQLiteDatabase openReader(Context context) {
+        Log.d(TAG, "opening reader " + (readerCount + 1));
+        return SQLiteDatabase.openDatabase(context.getApplicationContext().getDatabasePath(CupboardSQLiteOpenHelper.DATABASE_NAME).getPath(),
+                null, SQLiteDatabase.OPEN_READONLY);
     }
 }
@@ -0,0 +1,238 @@
+package com.blackcj.fitdata.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Created by Chris Black
+ *
+ * Backfills daily step counts by splitting the range into day shards and reading them on a
+ * bounded pool of worker threads. Results are handed to the writer in order, oldest day first,
+ * so a failed shard always leaves a contiguous block of written days behind it. The start of the
+ * first shard that was not written is returned so the next run can resume from there.
+ *
+ * The bulk mode reads runs of whole 24 hour days with a single day bucketed request each and
+ * splits the returned buckets back into the same day shards. Buckets have a fixed length, so a
+ * day that is longer or shorter because of a daylight saving change is read on its own and the
+ * buckets of every request line up with calendar days.
+ */
+public class StepBackfill {
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int READ_FAILED = -1;
+    public static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+
+    private final int concurrency;
+
+    public StepBackfill() {
+        this(DEFAULT_CONCURRENCY);
+    }
+
+    public StepBackfill(int concurrency) {
+        this.concurrency = concurrency > 0 ? concurrency : 1;
+    }
+
+    /**
+     * Split a range into day shards. The first shard starts at firstDayStart, every following
+     * shard starts one calendar day later and the last shard ends at endTime.
+     *
+     * @param firstDayStart Start of the oldest day in milliseconds
+     * @param endTime End of the range in milliseconds
+     * @return Shard boundaries, shard i covers [boundaries[i], boundaries[i + 1])
+     */
+    public static long[] splitIntoDays(long firstDayStart, long endTime) {
+        List<Long> starts = new ArrayList<>();
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(firstDayStart);
+        while (cal.getTimeInMillis() < endTime) {
+            starts.add(cal.getTimeInMillis());
+            cal.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        long[] boundaries = new long[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            boundaries[i] = starts.get(i);
+        }
+        boundaries[starts.size()] = endTime;
+        return boundaries;
+    }
+
+    /**
+     * Read every shard and write the results in order. Stops at the first shard that fails to
+     * read or write and cancels the reads that are still outstanding.
+     *
+     * @param boundaries Shard boundaries from {@link #splitIntoDays(long, long)}
+     * @param reader Reads the step count for a single shard, called from worker threads
+     * @param writer Writes the step count for a single shard, called from the calling thread
+     * @return Summary of the backfill including the point to resume from
+     */
+    public Result run(long[] boundaries, final StepReader reader, StepWriter writer) {
+        Result result = new Result();
+        int shardCount = boundaries.length - 1;
+        if (shardCount <= 0) {
+            result.resumeFrom = boundaries.length > 0 ? boundaries[0] : 0;
+            result.complete = true;
+            return result;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, shardCount));
+        List<Future<Integer>> futures = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            final long startTime = boundaries[i];
+            final long endTime = boundaries[i + 1];
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return reader.readSteps(startTime, endTime);
+                }
+            }));
+        }
+
+        result.resumeFrom = boundaries[shardCount];
+        result.complete = true;
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                int stepCount;
+                try {
+                    stepCount = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    stepCount = READ_FAILED;
+                }
+                if (stepCount == READ_FAILED || !writer.writeSteps(boundaries[i], boundaries[i + 1], stepCount)) {
+                    result.resumeFrom = boundaries[i];
+                    result.complete = false;
+                    break;
+                }
+                result.shardsWritten++;
+                result.totalSteps += stepCount;
+            }
+        } catch (InterruptedException e) {
+            result.resumeFrom = boundaries[result.shardsWritten];
+            result.complete = false;
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Read the shards with as few bucketed requests as the daylight saving changes in the range
+     * allow and write the results in order. Stops at the first request that fails or the first
+     * shard that fails to write.
+     *
+     * @param boundaries Shard boundaries from {@link #splitIntoDays(long, long)}
+     * @param reader Reads the step count of every shard in a run of whole days at once
+     * @param writer Writes the step count for a single shard
+     * @return Summary of the backfill including the point to resume from
+     */
+    public Result runBulk(long[] boundaries, BulkStepReader reader, StepWriter writer) {
+        Result result = new Result();
+        int shardCount = boundaries.length - 1;
+        result.resumeFrom = boundaries.length > 0 ? boundaries[0] : 0;
+        if (shardCount <= 0) {
+            result.complete = true;
+            return result;
+        }
+
+        int first = 0;
+        while (first < shardCount) {
+            int end = getRunEnd(boundaries, first);
+            int[] stepCounts = reader.readStepBuckets(Arrays.copyOfRange(boundaries, first, end + 1));
+            if (stepCounts == null || stepCounts.length != end - first) {
+                return result;
+            }
+            for (int i = first; i < end; i++) {
+                if (!writer.writeSteps(boundaries[i], boundaries[i + 1], stepCounts[i - first])) {
+                    return result;
+                }
+                result.shardsWritten++;
+                result.totalSteps += stepCounts[i - first];
+                result.resumeFrom = boundaries[i + 1];
+            }
+            first = end;
+        }
+        result.complete = true;
+        return result;
+    }
+
+    /**
+     * Find the shards that one day bucketed request can read. Whole 24 hour days are read
+     * together, the last shard may end early since its bucket ends with the range. Any other
+     * shard is read on its own.
+     *
+     * @return Index of the first shard after the run that starts at first
+     */
+    static int getRunEnd(long[] boundaries, int first) {
+        int shardCount = boundaries.length - 1;
+        int end = first + 1;
+        if (boundaries[first + 1] - boundaries[first] != DAY_MILLIS) {
+            return end;
+        }
+        while (end < shardCount && (boundaries[end + 1] - boundaries[end] == DAY_MILLIS
+                || (end == shardCount - 1 && boundaries[end + 1] - boundaries[end] < DAY_MILLIS))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Assign bucketed step counts to the day shards that contain them. Buckets are matched on
+     * their midpoint, a 25 hour day read on its own comes back as two buckets that both fall in
+     * it. Buckets outside of the shards are dropped.
+     *
+     * @param boundaries Shard boundaries from {@link #splitIntoDays(long, long)}
+     * @param bucketTimes Midpoint of each bucket in milliseconds
+     * @param bucketSteps Step count of each bucket
+     * @return Step count for each shard
+     */
+    public static int[] demultiplex(long[] boundaries, long[] bucketTimes, int[] bucketSteps) {
+        int[] stepCounts = new int[Math.max(boundaries.length - 1, 0)];
+        for (int i = 0; i < bucketTimes.length; i++) {
+            int index = Arrays.binarySearch(boundaries, bucketTimes[i]);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            if (index >= 0 && index < stepCounts.length) {
+                stepCounts[index] += bucketSteps[i];
+            }
+        }
+        return stepCounts;
+    }
+
+    public interface StepReader {
+        /**
+         * @return Step count for the range or {@link #READ_FAILED}
+         */
+        int readSteps(long startTime, long endTime);
+    }
+
+    public interface BulkStepReader {
+        /**
+         * @param boundaries Shard boundaries of a run, every shard but the last is 24 hours
+         *                   long unless it is the only one
+         * @return Step count for each shard or null when the read failed
+         */
+        int[] readStepBuckets(long[] boundaries);
+    }
+
+    public interface StepWriter {
+        /**
+         * @return false to stop the backfill
+         */
+        boolean writeSteps(long startTime, long endTime, int stepCount);
+    }
+
+    public static class Result {
+        public int shardsWritten = 0;
+        public long totalSteps = 0;
+        public long resumeFrom = 0;     // start of the first shard that was not written
+        public boolean complete = false;
+    }
+}
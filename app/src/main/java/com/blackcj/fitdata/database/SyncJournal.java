@@ -0,0 +1,54 @@
+package com.blackcj.fitdata.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.blackcj.fitdata.model.SyncChunk;
+
+import java.util.List;
+
+import static nl.qbusict.cupboard.CupboardFactory.cupboard;
+
+/**
+ * Created by Chris Black
+ *
+ * Journal of the chunks the sync has committed. A sync that is interrupted part way through
+ * leaves its finished chunks here so the next run can skip them. Entries are pruned once the
+ * watermark for their data type has moved past them and dropped when the watermark is rewound
+ * over them.
+ */
+public class SyncJournal {
+
+    private SyncJournal() {
+    }
+
+    public static void record(SQLiteDatabase db, String dataType, long start, long end, int rowCount, long duration) {
+        if (db == null || !db.isOpen()) {
+            return;
+        }
+        cupboard().withDatabase(db).put(new SyncChunk(dataType, start, end, rowCount, duration, System.currentTimeMillis()));
+    }
+
+    /**
+     * @return Completed chunks of the data type that overlap the range, oldest first
+     */
+    public static List<SyncChunk> getCompleted(SQLiteDatabase db, String dataType, long start, long end) {
+        return cupboard().withDatabase(db).query(SyncChunk.class)
+                .withSelection("dataType = ? AND rangeEnd > ? AND rangeStart < ?", dataType, "" + start, "" + end)
+                .orderBy("rangeStart ASC")
+                .list();
+    }
+
+    /**
+     * Forget chunks that the watermark of their data type has moved past.
+     */
+    public static void prune(SQLiteDatabase db, String dataType, long watermark) {
+        cupboard().withDatabase(db).delete(SyncChunk.class, "dataType = ? AND rangeEnd <= ?", dataType, "" + watermark);
+    }
+
+    /**
+     * Forget every chunk that reaches past the given time so it gets read again.
+     */
+    public static void invalidate(SQLiteDatabase db, long time) {
+        cupboard().withDatabase(db).delete(SyncChunk.class, "rangeEnd > ?", "" + time);
+    }
+}
@@ -0,0 +1,224 @@
+package com.blackcj.fitdata.database;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Chris Black
+ *
+ * Three stage pipeline used by the historical sync: fetch from Google Fit, convert the results to
+ * workouts and write them to the database. Each stage runs on its own thread with a bounded queue
+ * between stages, so the next network request is already in flight while the previous results
+ * are being written. A full queue blocks the stage in front of it which keeps memory bounded when
+ * the database falls behind.
+ *
+ * The fetcher and converter run on worker threads, the writer runs on the calling thread.
+ */
+public class SyncPipeline<F, C> {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+    private static final Object END = new Object();
+
+    private final int queueCapacity;
+
+    public SyncPipeline() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public SyncPipeline(int queueCapacity) {
+        this.queueCapacity = queueCapacity > 0 ? queueCapacity : 1;
+    }
+
+    /**
+     * Run the pipeline until the fetcher runs out of work or the writer asks to stop.
+     *
+     * @return Counters for each stage
+     */
+    public Stats run(final Fetcher<F> fetcher, final Converter<F, C> converter, Writer<C> writer) {
+        final Stats stats = new Stats();
+        final BlockingQueue<Object> fetched = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<Object> converted = new ArrayBlockingQueue<>(queueCapacity);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        long start = System.nanoTime();
+                        F item = fetcher.fetch();
+                        stats.fetch.busyNanos += System.nanoTime() - start;
+                        if (item == null) {
+                            break;
+                        }
+                        stats.fetch.items++;
+                        if (!stats.fetch.put(fetched, item, stats)) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Cancelled
+                } catch (RuntimeException e) {
+                    stats.error = e;
+                } finally {
+                    stats.fetch.end(fetched, stats);
+                }
+            }
+        });
+
+        executor.execute(new Runnable() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run() {
+                try {
+                    while (true) {
+                        Object item = stats.convert.take(fetched);
+                        if (item == END) {
+                            break;
+                        }
+                        long start = System.nanoTime();
+                        C result = converter.convert((F) item);
+                        stats.convert.busyNanos += System.nanoTime() - start;
+                        stats.convert.items++;
+                        if (!stats.convert.put(converted, result, stats)) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Cancelled
+                } catch (RuntimeException e) {
+                    stats.error = e;
+                } finally {
+                    stats.convert.end(converted, stats);
+                }
+            }
+        });
+
+        try {
+            while (true) {
+                @SuppressWarnings("unchecked")
+                C item = (C) stats.write.take(converted);
+                if (item == END) {
+                    break;
+                }
+                long start = System.nanoTime();
+                boolean keepGoing = writer.write(item);
+                stats.write.busyNanos += System.nanoTime() - start;
+                stats.write.items++;
+                if (!keepGoing) {
+                    stats.stopped = true;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            stats.stopped = true;
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            stats.stopped = true;
+            throw e;
+        } finally {
+            if (stats.stopped) {
+                executor.shutdownNow();
+            } else {
+                executor.shutdown();
+            }
+        }
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return stats;
+    }
+
+    public interface Fetcher<F> {
+        /**
+         * @return The next fetched item or null when there is nothing left to fetch
+         */
+        F fetch();
+    }
+
+    public interface Converter<F, C> {
+        C convert(F fetched);
+    }
+
+    public interface Writer<C> {
+        /**
+         * @return false to stop the pipeline
+         */
+        boolean write(C converted);
+    }
+
+    /**
+     * Counters for a single stage. Busy time is spent doing the stage's own work, blocked time is
+     * spent waiting on a full output queue (back pressure) and idle time is spent waiting on an
+     * empty input queue.
+     */
+    public static class StageStats {
+        public final String name;
+        public volatile int items = 0;
+        public volatile long busyNanos = 0;
+        public volatile long blockedNanos = 0;
+        public volatile long idleNanos = 0;
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return false when the pipeline was stopped while waiting for room in the queue
+         */
+        boolean put(BlockingQueue<Object> queue, Object item, Stats stats) throws InterruptedException {
+            long start = System.nanoTime();
+            try {
+                while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                    if (stats.stopped) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                blockedNanos += System.nanoTime() - start;
+            }
+        }
+
+        Object take(BlockingQueue<Object> queue) throws InterruptedException {
+            long start = System.nanoTime();
+            Object item = queue.take();
+            idleNanos += System.nanoTime() - start;
+            return item;
+        }
+
+        void end(BlockingQueue<Object> queue, Stats stats) {
+            try {
+                put(queue, END, stats);
+            } catch (InterruptedException e) {
+                // Cancelled, nobody is waiting for the end marker
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + items + " items, busy " + TimeUnit.NANOSECONDS.toMillis(busyNanos)
+                    + "ms, blocked " + TimeUnit.NANOSECONDS.toMillis(blockedNanos)
+                    + "ms, idle " + TimeUnit.NANOSECONDS.toMillis(idleNanos) + "ms";
+        }
+    }
+
+    public static class Stats {
+        public final StageStats fetch = new StageStats("fetch");
+        public final StageStats convert = new StageStats("convert");
+        public final StageStats write = new StageStats("write");
+        public volatile boolean stopped = false;
+        public volatile RuntimeException error;
+
+        @Override
+        public String toString() {
+            return fetch + "; " + convert + "; " + write;
+        }
+    }
+}
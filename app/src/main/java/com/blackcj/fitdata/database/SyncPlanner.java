@@ -0,0 +1,89 @@
+package com.blackcj.fitdata.database;
+
+import com.blackcj.fitdata.Utilities;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Created by Chris Black
+ *
+ * Plans the activity part of a sync: where it starts reading, how the window up to now is split
+ * into ranges and where the next sync starts. DataManager runs the plan against Google Fit, the
+ * unit tests run the same plan against an in memory source.
+ */
+class SyncPlanner {
+
+    // Recent data may still change, each sync reads this far back before its watermark
+    static final long SYNC_OVERLAP = 1000 * 60 * 60 * 2;
+    // How far back a sync reads activity when it has no watermark yet
+    static final int FULL_READ_DAYS = 90;
+    // Today and this week are read with a single request each
+    static final long RECENT_TIMEOUT_MINUTES = 10;
+
+    private SyncPlanner() {
+    }
+
+    /**
+     * @param watermark Activity watermark or 0 if activity has never been synced
+     * @param now Time of the sync
+     * @return Time the activity read starts from
+     */
+    static long getActivityStart(long watermark, long now) {
+        if (watermark > 0) {
+            return watermark;
+        }
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(now);
+        cal.add(Calendar.DAY_OF_YEAR, -FULL_READ_DAYS);
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * Split [startTime, now) into today, this week and the rest. Today and this week are only
+     * read when the window reaches back to their start. The rest is read in chunks, chunks that
+     * end inside the overlap of the next sync are not journaled so that sync reads them again.
+     *
+     * @param chunkTimeoutMinutes How long each window of the rest gets
+     * @return Ranges to read, most recent first
+     */
+    static List<ActivityRange> getActivityRanges(long startTime, long now, long chunkTimeoutMinutes) {
+        List<ActivityRange> ranges = new ArrayList<>();
+        long endTime = now;
+
+        // Load today
+        long dayStart = Utilities.getTimeFrameStart(Utilities.TimeFrame.BEGINNING_OF_DAY, now);
+        if (startTime <= dayStart && dayStart < endTime) {
+            ranges.add(new ActivityRange("today", dayStart, endTime, RECENT_TIMEOUT_MINUTES));
+            endTime = dayStart;
+        }
+
+        // Load week
+        long weekStart = Utilities.getTimeFrameStart(Utilities.TimeFrame.BEGINNING_OF_WEEK, now);
+        if (startTime <= weekStart && weekStart < endTime) {
+            ranges.add(new ActivityRange("week", weekStart, endTime, RECENT_TIMEOUT_MINUTES));
+            endTime = weekStart;
+        }
+
+        // Load rest
+        if (startTime < endTime) {
+            ActivityRange rest = new ActivityRange("rest", startTime, endTime, chunkTimeoutMinutes, true);
+            rest.journalUntil = now - SYNC_OVERLAP;
+            ranges.add(rest);
+        }
+        return ranges;
+    }
+
+    /**
+     * Segments that were still open at the time of the sync are read again, and so is everything
+     * from the oldest range that failed on.
+     *
+     * @param now Time of the sync
+     * @param failedFrom Start of the oldest range that failed or Long.MAX_VALUE if none did
+     * @return Activity watermark to store after a sync that wrote data
+     */
+    static long getNextActivityWatermark(long now, long failedFrom) {
+        return Math.min(now - SYNC_OVERLAP, failedFrom);
+    }
+}
@@ -0,0 +1,187 @@
+package com.blackcj.fitdata.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.blackcj.fitdata.model.Workout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Chris Black
+ *
+ * Collects workout rows and writes them to the database in batches. Writing each row with
+ * cupboard().put() runs its own implicit transaction, which means a journal sync per row. Here
+ * a batch is written in a single transaction with a precompiled insert statement once it
+ * reaches the batch size or has been waiting for longer than the batch time.
+ *
+ * Rows are upserted on (start, type, packageName): a workout that is already stored has its
+ * duration and step count updated in place, anything else is inserted with a new _id. A sync
+ * that re-reads a window deletes it first, the delete and the rows read for the window are
+ * committed together so nothing disappears from screen in between.
+ *
+ * Deletes are held back and run at the start of the next batch, so a delete and the rows that
+ * replace it are committed together. The {@link DailyRollup} triggers fire inside the same
+ * transaction, so the daily totals change in the same commit as the rows.
+ */
+public class WorkoutBatchWriter {
+
+    private static final String TAG = "WorkoutBatchWriter";
+
+    public static final int DEFAULT_BATCH_SIZE = 250;
+    public static final long DEFAULT_BATCH_MILLIS = 2000;
+
+    // Matches the table cupboard creates for Workout
+    static final String UPDATE_WORKOUT = "UPDATE Workout SET duration = ?, stepCount = ? "
+            + "WHERE start = ? AND type = ? AND packageName = ?";
+    private static final String INSERT_WORKOUT = "INSERT INTO Workout "
+            + "(duration, start, type, stepCount, packageName) VALUES (?, ?, ?, ?, ?)";
+
+    private final SQLiteDatabase mDb;
+    private final int mBatchSize;
+    private final long mBatchMillis;
+    private final List<Workout> mPending = new ArrayList<>();
+    private final List<PendingDelete> mPendingDeletes = new ArrayList<>();
+    private SQLiteStatement mUpdate;
+    private SQLiteStatement mInsert;
+    private long mBatchStartTime = 0;
+    private int mWriteCount = 0;
+
+    public WorkoutBatchWriter(SQLiteDatabase db) {
+        this(db, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_MILLIS);
+    }
+
+    public WorkoutBatchWriter(SQLiteDatabase db, int batchSize, long batchMillis) {
+        mDb = db;
+        mBatchSize = batchSize > 0 ? batchSize : 1;
+        mBatchMillis = batchMillis;
+    }
+
+    /**
+     * Queue a workout to be inserted or updated. The _id of the workout is ignored and set
+     * once the workout has been written.
+     *
+     * @return false if the database has been closed
+     */
+    public synchronized boolean put(Workout workout) {
+        if (!mDb.isOpen()) {
+            return false;
+        }
+        if (mPending.size() == 0 && mPendingDeletes.size() == 0) {
+            mBatchStartTime = SystemClock.elapsedRealtime();
+        }
+        mPending.add(workout);
+        if (mPending.size() >= mBatchSize || SystemClock.elapsedRealtime() - mBatchStartTime >= mBatchMillis) {
+            return flush();
+        }
+        return true;
+    }
+
+    /**
+     * Queue a delete. It runs in the same transaction as the next batch of inserts, after any
+     * inserts that were queued before it.
+     *
+     * @return false if the database has been closed
+     */
+    public synchronized boolean delete(String selection, String... selectionArgs) {
+        if (mPending.size() > 0 && !flush()) {
+            return false;
+        }
+        if (mPendingDeletes.size() == 0) {
+            mBatchStartTime = SystemClock.elapsedRealtime();
+        }
+        mPendingDeletes.add(new PendingDelete(selection, selectionArgs));
+        return mDb.isOpen();
+    }
+
+    /**
+     * Write everything that has been queued in a single transaction.
+     *
+     * @return false if the database has been closed
+     */
+    public synchronized boolean flush() {
+        if (mPending.size() == 0 && mPendingDeletes.size() == 0) {
+            return true;
+        }
+        if (!mDb.isOpen()) {
+            Log.w(TAG, "Warning: db is closed, dropping " + mPending.size() + " workouts");
+            mPending.clear();
+            mPendingDeletes.clear();
+            return false;
+        }
+        if (mInsert == null) {
+            mUpdate = mDb.compileStatement(UPDATE_WORKOUT);
+            mInsert = mDb.compileStatement(INSERT_WORKOUT);
+        }
+        mDb.beginTransaction();
+        try {
+            for (PendingDelete delete : mPendingDeletes) {
+                mDb.delete(Workout.class.getSimpleName(), delete.selection, delete.selectionArgs);
+            }
+            for (Workout workout : mPending) {
+                upsert(workout);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        mWriteCount += mPending.size();
+        mPending.clear();
+        mPendingDeletes.clear();
+        return true;
+    }
+
+    /**
+     * Flush anything that is still queued and release the compiled statement.
+     */
+    public synchronized void close() {
+        flush();
+        if (mInsert != null) {
+            mUpdate.close();
+            mUpdate = null;
+            mInsert.close();
+            mInsert = null;
+        }
+    }
+
+    /**
+     * @return Number of workouts written so far
+     */
+    public synchronized int getWriteCount() {
+        return mWriteCount;
+    }
+
+    private void upsert(Workout workout) {
+        // Null would never match in the update, store it as an empty package name instead
+        String packageName = workout.packageName != null ? workout.packageName : "";
+        mUpdate.clearBindings();
+        mUpdate.bindLong(1, workout.duration);
+        mUpdate.bindLong(2, workout.stepCount);
+        mUpdate.bindLong(3, workout.start);
+        mUpdate.bindLong(4, workout.type);
+        mUpdate.bindString(5, packageName);
+        if (mUpdate.executeUpdateDelete() > 0) {
+            return;
+        }
+        mInsert.clearBindings();
+        mInsert.bindLong(1, workout.duration);
+        mInsert.bindLong(2, workout.start);
+        mInsert.bindLong(3, workout.type);
+        mInsert.bindLong(4, workout.stepCount);
+        mInsert.bindString(5, packageName);
+        workout._id = mInsert.executeInsert();
+    }
+
+    private static class PendingDelete {
+        final String selection;
+        final String[] selectionArgs;
+
+        PendingDelete(String selection, String[] selectionArgs) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+        }
+    }
+}
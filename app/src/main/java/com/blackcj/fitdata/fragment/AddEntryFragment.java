@@ -247,7 +247,6 @@ public class AddEntryFragment extends Fragment {
         cal.set(year, month, day, hour, minute);
         long startTime = cal.getTimeInMillis();
         workout.start = startTime;
-        workout._id = startTime;
         cal.add(Calendar.MINUTE, Integer.parseInt(editTextMinutes.getText().toString()));
         workout.duration = cal.getTimeInMillis() - startTime;
         workout.stepCount = Integer.parseInt(editTextSteps.getText().toString());
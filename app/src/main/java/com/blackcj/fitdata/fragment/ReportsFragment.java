@@ -2,6 +2,7 @@ package com.blackcj.fitdata.fragment;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.content.ContextCompat;
 import android.util.DisplayMetrics;
@@ -14,12 +15,16 @@ import android.widget.FrameLayout;
 import android.widget.Toast;
 
 import com.blackcj.fitdata.Utilities;
+import com.blackcj.fitdata.database.CacheManager;
+import com.blackcj.fitdata.database.DailyRollup;
+import com.blackcj.fitdata.database.RollupMonthCache;
 import com.blackcj.fitdata.database.SimpleDBHelper;
-import com.blackcj.fitdata.model.Workout;
+import com.blackcj.fitdata.model.WorkoutColumns;
 import com.blackcj.fitdata.R;
 import com.blackcj.fitdata.model.WorkoutTypes;
 import com.blackcj.fitdata.reports.BaseReportGraph;
 import com.blackcj.fitdata.reports.MultipleLineGraphs;
+import com.blackcj.fitdata.reports.SegmentBuckets;
 import com.blackcj.fitdata.reports.SingleBarGraphWithGoal;
 import com.crashlytics.android.answers.Answers;
 import com.crashlytics.android.answers.ContentViewEvent;
@@ -30,17 +35,14 @@ import org.achartengine.tools.PanListener;
 import org.achartengine.tools.ZoomEvent;
 import org.achartengine.tools.ZoomListener;
 
-import java.util.Arrays;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
-import nl.qbusict.cupboard.QueryResultIterable;
-
-import static nl.qbusict.cupboard.CupboardFactory.cupboard;
 
 /**
  * Created by Chris Black
@@ -51,10 +53,17 @@ public class ReportsFragment extends BaseFragment {
     public static final String ARG_WORKOUT_TYPE = "workout_type";
     public static final String ARG_GROUP_COUNT = "group_count";
     public static final String TAG = "ReportsFragment";
+    /** Shortest history charted when grouping by day and by week, longer histories are charted in full. */
+    private static final int MIN_DAILY_DAYS = 45;
+    private static final int MIN_WEEKLY_DAYS = 150;
+    /** Guards against a bogus start time stretching the chart. */
+    private static final int MAX_HISTORY_DAYS = 20 * 365;
+    /** Segments on screen when the chart opens, the graphs start on the last week of segments. */
+    private static final int INITIAL_SEGMENTS = 7;
 
     private BaseReportGraph reportGraph;
     private int multiplier = 1;
-    private int numDays = 45;
+    private int numDays = MIN_DAILY_DAYS;
     private int numSegments;
     private long millisecondsInSegment;
 
@@ -62,6 +71,13 @@ public class ReportsFragment extends BaseFragment {
     private GraphicalView mChartView;
 
     private int workoutType;
+    private LoadChartTask mLoadTask;
+    /** Data on the chart, replaced when a load finishes. Null until the first load is done. */
+    private SegmentBuckets mBuckets;
+    private SegmentBuckets mSpareBuckets;
+    /** Segments of mBuckets that were loaded, the rest are empty. */
+    private int mLoadedFrom;
+    private int mLoadedTo;
     @Bind(R.id.chart) FrameLayout mChartLayout;
 
     public static ReportsFragment newInstance(int workoutType, int groupCount) {
@@ -180,9 +196,9 @@ public class ReportsFragment extends BaseFragment {
         Calendar calendar = Calendar.getInstance();
         int day = calendar.get(Calendar.DAY_OF_WEEK);
         if (groupCount == 1) {
-            numDays = 45;
+            numDays = MIN_DAILY_DAYS;
         } else {
-            numDays = 150 + day;
+            numDays = MIN_WEEKLY_DAYS + day;
         }
         Log.d(TAG, "GroupCount: " + groupCount + " Number of days: " + numDays);
         multiplier = groupCount;
@@ -206,15 +222,28 @@ public class ReportsFragment extends BaseFragment {
     private void updateLabels() {
         double start = reportGraph.getRenderer().getXAxisMin();
         double stop = reportGraph.getRenderer().getXAxisMax();
+        // Pick the resolution for the new range, the chart repaints after the pan or zoom
+        reportGraph.setVisibleRange(start, stop);
+        loadVisibleRange(start, stop);
         double quarterStep = (stop - start) / 8;
         double halfStep = (stop - start) / 2;
+        // Show the year once the range covers more than a few months
+        boolean showYear = (stop - start) * multiplier > 120;
         reportGraph.getRenderer().clearXTextLabels();
-        long index = numSegments - normalize((int) (start + quarterStep)) - 1;
-        reportGraph.getRenderer().addXTextLabel(start + quarterStep, Utilities.getDayString(currentTimeStamp - index * millisecondsInSegment));
-        index = numSegments - normalize((int) (start + halfStep)) - 1;
-        reportGraph.getRenderer().addXTextLabel(start + halfStep, Utilities.getDayString(currentTimeStamp - index * millisecondsInSegment));
-        index = numSegments - normalize((int) (stop - quarterStep)) - 1;
-        reportGraph.getRenderer().addXTextLabel(stop - quarterStep, Utilities.getDayString(currentTimeStamp - index * millisecondsInSegment));
+        reportGraph.getRenderer().addXTextLabel(start + quarterStep, getLabel(start + quarterStep, showYear));
+        reportGraph.getRenderer().addXTextLabel(start + halfStep, getLabel(start + halfStep, showYear));
+        reportGraph.getRenderer().addXTextLabel(stop - quarterStep, getLabel(stop - quarterStep, showYear));
+    }
+
+    private String getLabel(double position, boolean showYear) {
+        long time;
+        if (mBuckets != null) {
+            time = mBuckets.getSegmentStart(normalize((int) position));
+        } else {
+            long index = numSegments - normalize((int) position) - 1;
+            time = currentTimeStamp - index * millisecondsInSegment;
+        }
+        return showYear ? Utilities.getDateString(time) : Utilities.getDayString(time);
     }
 
     private int normalize(int index) {
@@ -245,7 +274,10 @@ public class ReportsFragment extends BaseFragment {
 
     @Override
     public void onDestroy() {
-        SimpleDBHelper.INSTANCE.close();
+        if (mLoadTask != null) {
+            mLoadTask.cancel(true);
+            mLoadTask = null;
+        }
         super.onDestroy();
     }
 
@@ -265,84 +297,59 @@ public class ReportsFragment extends BaseFragment {
         }
     }
 
-    // TODO: Fix this ugly function
+    /**
+     * Load the chart data in the background. A load that is still running is cancelled, its
+     * result would be for the old group count. Only the end of the history is read, the rest is
+     * loaded by {@link #loadVisibleRange(double, double)} as the chart is panned.
+     */
     public void showData() {
-        Map<Integer, Integer[]> map = new HashMap<>();
-        reportGraph.clearData();
-
-        Calendar cal = Calendar.getInstance();
-        Date now = new Date();
-        cal.setTime(now);
-        int week_of_year = cal.get(Calendar.WEEK_OF_YEAR);
-        if (multiplier == 7) {
-            cal.set(Calendar.DAY_OF_WEEK, Calendar.MONDAY);
+        if (mLoadTask != null) {
+            mLoadTask.cancel(true);
         }
-        cal.set(Calendar.HOUR_OF_DAY, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
-        cal.add(Calendar.DAY_OF_YEAR, -numDays + 1);        // 30 days of history
-        long startTime = cal.getTimeInMillis();
-        long baseline = (startTime - startTime % millisecondsInSegment) / millisecondsInSegment;
-        SQLiteDatabase db = SimpleDBHelper.INSTANCE.open(this.getActivity().getApplicationContext());
-        QueryResultIterable<Workout> itr = cupboard().withDatabase(db).query(Workout.class).withSelection("start >= ?", "" + startTime).query();
-        for (Workout workout : itr) {
-            cal.setTimeInMillis(workout.start);
-            long id = (workout.start - workout.start % millisecondsInSegment) / millisecondsInSegment - baseline;
-            if (multiplier == 7) {
-                id = numSegments - (week_of_year - cal.get(Calendar.WEEK_OF_YEAR)) - 1;
-            }
-
-            if (id < numSegments && id >= 0) {
-
-                if (workoutType == WorkoutTypes.TIME.getValue() && WorkoutTypes.isActiveWorkout(workout.type)) {
-                    // Put all data here to show totals
-                    if (map.get(workoutType) == null) {
-                        Integer[] dataMap = new Integer[numSegments];
-                        Arrays.fill(dataMap, 0);
-                        dataMap[(int) id] = (int) (workout.duration / 1000 / 60);
-                        map.put(workoutType, dataMap);
-                    } else {
-                        Integer[] dataMap = map.get(workoutType);
-                        dataMap[(int) id] += (int) (workout.duration / 1000 / 60);
-                    }
-
-                    if (map.get(workout.type) == null) {
-                        Integer[] dataMap = new Integer[numSegments];
-                        Arrays.fill(dataMap, 0);
-                        dataMap[(int) id] = (int) (workout.duration / 1000 / 60);
-                        map.put(workout.type, dataMap);
-                    } else {
-                        Integer[] dataMap = map.get(workout.type);
-                        dataMap[(int) id] += (int) (workout.duration / 1000 / 60);
-                    }
-                } else if (workout.type == workoutType) {
-                    if (map.get(workout.type) == null) {
-                        Integer[] dataMap = new Integer[numSegments];
-                        Arrays.fill(dataMap, 0);
-                        if (workout.type == WorkoutTypes.STEP_COUNT.getValue()) {
-                            dataMap[(int) id] = workout.stepCount;
-                        } else {
-                            dataMap[(int) id] = (int) (workout.duration / 1000 / 60);
-                        }
+        mBuckets = null;
+        mLoadTask = new LoadChartTask(this, getActivity().getApplicationContext(), takeSpareBuckets(), 0, 0);
+        mLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
-                        map.put(workout.type, dataMap);
-                    } else {
-                        Integer[] dataMap = map.get(workout.type);
-                        if (workout.type == WorkoutTypes.STEP_COUNT.getValue()) {
-                            dataMap[(int) id] += workout.stepCount;
-                        } else {
-                            dataMap[(int) id] += (int) (workout.duration / 1000 / 60);
-                        }
-                    }
-                }
+    /**
+     * Make sure the visible segments and one screen on either side are loaded, so panning finds
+     * the next screen ready. Loads add to what is already loaded.
+     */
+    private void loadVisibleRange(double start, double stop) {
+        if (mBuckets == null) {
+            // The first load is still running
+            return;
+        }
+        double span = stop - start;
+        int from = Math.max((int) Math.floor(start - span), 0);
+        int to = Math.min((int) Math.ceil(stop + span) + 1, mBuckets.getSegmentCount());
+        if (from >= mLoadedFrom && to <= mLoadedTo) {
+            return;
+        }
+        if (mLoadTask != null) {
+            if (from >= mLoadTask.from && to <= mLoadTask.to) {
+                return;
             }
+            mLoadTask.cancel(true);
         }
-        itr.close();
+        mLoadTask = new LoadChartTask(this, getActivity().getApplicationContext(), takeSpareBuckets(),
+                Math.min(from, mLoadedFrom), Math.max(to, mLoadedTo));
+        mLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
-        // TODO: END
-        int series = 0;
-        for (Integer workoutType : map.keySet()) {
+    private SegmentBuckets takeSpareBuckets() {
+        // Reuse the buffers of an earlier load unless a cancelled load may still be filling them
+        SegmentBuckets buckets = mSpareBuckets != null ? mSpareBuckets : new SegmentBuckets();
+        mSpareBuckets = null;
+        return buckets;
+    }
+
+    private void applyChartData(SegmentBuckets buckets, boolean resetViewport) {
+        double xAxisMin = reportGraph.getRenderer().getXAxisMin();
+        double xAxisMax = reportGraph.getRenderer().getXAxisMax();
+        reportGraph.clearData();
+        for (int series = 0; series < buckets.size; series++) {
+            int workoutType = buckets.types[series];
             int color = ContextCompat.getColor(this.getActivity(),R.color.other_graph);
             if (workoutType == WorkoutTypes.WALKING.getValue()) {
                 color = ContextCompat.getColor(this.getActivity(),R.color.walking_graph);
@@ -356,15 +363,157 @@ public class ReportsFragment extends BaseFragment {
                 color = ContextCompat.getColor(this.getActivity(),R.color.paddling_graph);
             }
             reportGraph.addRenderer(series, getActivity(), color);
-            Integer[] dataMap = map.get(workoutType);
-            for (int n = 0; n < numSegments; n++) {
-                reportGraph.addWorkout(series, dataMap[n], n);
-            }
-            series++;
+            reportGraph.setSeries(series, buckets.values[series]);
         }
 
         reportGraph.updateRenderer();
+        if (!resetViewport) {
+            // Keep what is on screen, the load only filled in data past the edges
+            reportGraph.getRenderer().setXAxisMin(xAxisMin);
+            reportGraph.getRenderer().setXAxisMax(xAxisMax);
+        }
         updateLabels();
         mChartView.repaint();
     }
-}
\ No newline at end of file
+
+    /**
+     * Adds up a range of segments on a pooled reader. Days come from the months cached by
+     * {@link RollupMonthCache}, or from the workouts while the daily rollup is being rebuilt.
+     * Only the final arrays are handed to the UI thread.
+     *
+     * The first load sizes the segments to the whole history and reads the last two screens. A
+     * later load copies the data on the chart and reads only the segments it adds. The settings
+     * are copied when the task is created so changing the group count while it runs doesn't
+     * affect it.
+     */
+    private static class LoadChartTask extends AsyncTask<Void, Void, SegmentBuckets> {
+
+        private final WeakReference<ReportsFragment> mFragment;
+        private final Context mContext;
+        private final SegmentBuckets mBuckets;
+        private final SegmentBuckets mPrevious;
+        private final int mPreviousFrom;
+        private final int mPreviousTo;
+        private final int workoutType;
+        private final int multiplier;
+        private final int minSegments;
+        private final List<RollupMonthCache.Month> mMonths = new ArrayList<>();
+        private WorkoutColumns mColumns;
+        /** Segments that are loaded when the task is done, set by the first load once it knows them. */
+        int from;
+        int to;
+
+        LoadChartTask(ReportsFragment fragment, Context context, SegmentBuckets buckets, int from, int to) {
+            mFragment = new WeakReference<>(fragment);
+            mContext = context;
+            mBuckets = buckets;
+            mPrevious = fragment.mBuckets;
+            mPreviousFrom = fragment.mLoadedFrom;
+            mPreviousTo = fragment.mLoadedTo;
+            workoutType = fragment.workoutType;
+            multiplier = fragment.multiplier;
+            minSegments = fragment.numSegments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SegmentBuckets doInBackground(Void... params) {
+            SQLiteDatabase db = SimpleDBHelper.INSTANCE.acquireReader(mContext);
+            try {
+                boolean useRollup = !DailyRollup.needsRebuild(mContext);
+                int loadedFrom;
+                int loadedTo;
+                if (mPrevious == null) {
+                    long now = System.currentTimeMillis();
+                    mBuckets.reset(multiplier, minSegments, now);
+                    long firstDay = useRollup ? DailyRollup.getFirstDay(db) : CacheManager.getFirstWorkoutStart(db);
+                    if (firstDay > 0) {
+                        long segments = Math.max(minSegments, mBuckets.getSegmentsAgo(firstDay) + 1);
+                        mBuckets.reset(multiplier, (int) Math.min(segments, MAX_HISTORY_DAYS / multiplier), now);
+                    }
+                    to = mBuckets.getSegmentCount();
+                    from = Math.max(to - 2 * INITIAL_SEGMENTS, 0);
+                    loadedFrom = to;
+                    loadedTo = to;
+                } else {
+                    mBuckets.copyFrom(mPrevious);
+                    loadedFrom = mPreviousFrom;
+                    loadedTo = mPreviousTo;
+                }
+                // Chart the type that was asked for even if it has no data
+                mBuckets.getSeries(workoutType);
+                addRange(db, useRollup, from, loadedFrom);
+                addRange(db, useRollup, loadedTo, to);
+            } finally {
+                SimpleDBHelper.INSTANCE.releaseReader(db);
+            }
+            return isCancelled() ? null : mBuckets;
+        }
+
+        private void addRange(SQLiteDatabase db, boolean useRollup, int fromSegment, int toSegment) {
+            if (fromSegment >= toSegment || isCancelled()) {
+                return;
+            }
+            long startTime = mBuckets.getSegmentStart(fromSegment);
+            long endTime = mBuckets.getSegmentStart(toSegment);
+            if (useRollup) {
+                RollupMonthCache.read(db, startTime, endTime, mMonths);
+                for (RollupMonthCache.Month month : mMonths) {
+                    for (int i = 0; i < month.size; i++) {
+                        long day = month.days[i];
+                        if (day >= startTime && day < endTime) {
+                            add(mBuckets.getSegment(day), month.types[i], month.durations[i], (int) month.steps[i]);
+                        }
+                    }
+                }
+            } else {
+                if (mColumns == null) {
+                    mColumns = new WorkoutColumns();
+                }
+                CacheManager.readWorkoutColumns(db, startTime - 1, endTime - 1, mColumns);
+                for (int i = 0; i < mColumns.size; i++) {
+                    add(mBuckets.getSegment(mColumns.start[i]), mColumns.type[i], mColumns.duration[i], mColumns.steps[i]);
+                }
+            }
+        }
+
+        private void add(int segment, int type, long duration, int steps) {
+            if (segment < 0) {
+                return;
+            }
+            int minutes = (int) (duration / 1000 / 60);
+            if (workoutType == WorkoutTypes.TIME.getValue() && WorkoutTypes.isActiveWorkout(type)) {
+                // Put all data here to show totals
+                mBuckets.add(workoutType, segment, minutes);
+                mBuckets.add(type, segment, minutes);
+            } else if (type == workoutType) {
+                if (type == WorkoutTypes.STEP_COUNT.getValue()) {
+                    mBuckets.add(type, segment, steps);
+                } else {
+                    mBuckets.add(type, segment, minutes);
+                }
+            }
+        }
+
+        @Override
+        protected void onPostExecute(SegmentBuckets buckets) {
+            ReportsFragment fragment = mFragment.get();
+            if (buckets == null || fragment == null || !fragment.isAdded() || fragment.mChartView == null) {
+                return;
+            }
+            if (fragment.mLoadTask == this) {
+                fragment.mLoadTask = null;
+            }
+            // The graph copies the values, the replaced buffers can be filled by a later load
+            if (fragment.mBuckets != null) {
+                fragment.mSpareBuckets = fragment.mBuckets;
+            }
+            fragment.mBuckets = buckets;
+            fragment.mLoadedFrom = from;
+            fragment.mLoadedTo = to;
+            fragment.numSegments = buckets.getSegmentCount();
+            fragment.applyChartData(buckets, mPrevious == null);
+        }
+    }
+}
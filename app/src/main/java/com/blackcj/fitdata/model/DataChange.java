@@ -0,0 +1,77 @@
+package com.blackcj.fitdata.model;
+
+import com.blackcj.fitdata.Utilities;
+
+import java.util.Arrays;
+
+/**
+ * Created by Chris Black
+ *
+ * Range of workout start times that was written or deleted, with the activity types involved.
+ * Listeners use it to reload only the time frames the change falls in.
+ */
+public class DataChange {
+
+    /** Every time and every type, for changes like a rollup rebuild. */
+    public static final DataChange ALL = new DataChange(0, Long.MAX_VALUE, null);
+
+    public final long startTime;
+    public final long endTime;
+    /** Sorted activity types that changed or null if any type may have. */
+    public final int[] types;
+
+    /**
+     * @param startTime First changed start time
+     * @param endTime End of the changed start times, exclusive
+     * @param types Activity types that changed, null if unknown
+     */
+    public DataChange(long startTime, long endTime, int[] types) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        if (types != null) {
+            types = types.clone();
+            Arrays.sort(types);
+        }
+        this.types = types;
+    }
+
+    /**
+     * @return Change to the workouts of one type that start at the same time as the given one
+     */
+    public static DataChange of(Workout workout) {
+        return new DataChange(workout.start, workout.start + 1, new int[] { workout.type });
+    }
+
+    /**
+     * @return True if a type other than the given ones may have changed
+     */
+    public boolean hasOtherType(int... excluded) {
+        if (types == null) {
+            return true;
+        }
+        int[] sorted = excluded.clone();
+        Arrays.sort(sorted);
+        for (int type : types) {
+            if (Arrays.binarySearch(sorted, type) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if the range overlaps the part of the time frame its report reads
+     */
+    public boolean overlaps(Utilities.TimeFrame timeFrame) {
+        long start = Utilities.getTimeFrameStart(timeFrame);
+        // Every time frame but last month runs up to now, later writes land in it too
+        long end = timeFrame == Utilities.TimeFrame.LAST_MONTH ? Utilities.getTimeFrameEnd(timeFrame) : Long.MAX_VALUE;
+        return startTime < end && start < endTime;
+    }
+
+    @Override
+    public String toString() {
+        return Utilities.getTimeDateString(startTime) + " - " + (endTime == Long.MAX_VALUE ? "now"
+                : Utilities.getTimeDateString(endTime)) + " types: " + (types == null ? "all" : Arrays.toString(types));
+    }
+}
@@ -0,0 +1,30 @@
+package com.blackcj.fitdata.model;
+
+/**
+ * Created by Chris Black
+ *
+ * Model for the sync journal. One row per chunk of Google Fit data that has been read and
+ * committed to the local database.
+ */
+public class SyncChunk {
+
+    public Long _id;
+    public String dataType;         // Google Fit data type name
+    public long rangeStart = 0;     // start of the range that was read
+    public long rangeEnd = 0;       // end of the range that was read
+    public int rowCount = 0;        // number of rows written
+    public long duration = 0;       // time taken to read the range in milliseconds
+    public long completed = 0;      // time the chunk was committed
+
+    public SyncChunk() {
+    }
+
+    public SyncChunk(String dataType, long start, long end, int rowCount, long duration, long completed) {
+        this.dataType = dataType;
+        this.rangeStart = start;
+        this.rangeEnd = end;
+        this.rowCount = rowCount;
+        this.duration = duration;
+        this.completed = completed;
+    }
+}
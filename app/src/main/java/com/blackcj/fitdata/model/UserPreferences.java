@@ -80,6 +80,37 @@ public class UserPreferences {
         // Commit the edits!
         editor.commit();
     }
+    public static long getSyncWatermark(Context context, String dataType) {
+        SharedPreferences settings = context.getApplicationContext().getSharedPreferences(PREFS_NAME, 0);
+        return settings.getLong("syncWatermark_" + dataType, 0);
+    }
+
+    public static void setSyncWatermark(Context context, String dataType, long value) {
+        SharedPreferences settings = context.getApplicationContext().getSharedPreferences(PREFS_NAME, 0);
+        SharedPreferences.Editor editor = settings.edit();
+        editor.putLong("syncWatermark_" + dataType, value);
+
+        // Commit the edits!
+        editor.commit();
+    }
+
+    /**
+     * Time zone the daily rollup was last built in, empty if it was never built.
+     */
+    public static String getRollupTimeZone(Context context) {
+        SharedPreferences settings = context.getApplicationContext().getSharedPreferences(PREFS_NAME, 0);
+        return settings.getString("rollupTimeZone", "");
+    }
+
+    public static void setRollupTimeZone(Context context, String value) {
+        SharedPreferences settings = context.getApplicationContext().getSharedPreferences(PREFS_NAME, 0);
+        SharedPreferences.Editor editor = settings.edit();
+        editor.putString("rollupTimeZone", value);
+
+        // Commit the edits!
+        editor.commit();
+    }
+
     public static boolean getShouldDeleteData(Context context) {
         SharedPreferences settings = context.getApplicationContext().getSharedPreferences(PREFS_NAME, 0);
         return settings.getBoolean("shouldDeleteData", false);
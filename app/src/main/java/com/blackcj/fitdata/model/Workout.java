@@ -12,7 +12,7 @@ import com.blackcj.fitdata.Utilities;
  */
 public class Workout implements Comparable<Workout>, Parcelable {
 
-    public long _id;            // same as start
+    public long _id;            // row id, set once the workout is stored
     public long duration = 0;   // length of activity
     public long start = 0;      // activity start time
     public int type;            // type of activity
@@ -0,0 +1,215 @@
+package com.blackcj.fitdata.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Chris Black
+ *
+ * Workouts stored column by column in primitive arrays, sorted by start time. A row costs a few
+ * dozen bytes instead of a Workout object with its boxed comparisons and its own package name
+ * string, so long histories can be kept in memory for reports and charts.
+ *
+ * Package names are interned into a dictionary and stored as ids. Rows are looked up by time
+ * with a binary search and scanned by index without allocating.
+ */
+public class WorkoutColumns {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    public int size = 0;
+    public long[] start;
+    public long[] duration;
+    public int[] type;
+    public int[] steps;
+    public int[] packageId;
+
+    private final List<String> mPackageNames = new ArrayList<>();
+    private final Map<String, Integer> mPackageIds = new HashMap<>();
+    private boolean mSorted = true;
+
+    public WorkoutColumns() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public WorkoutColumns(int capacity) {
+        capacity = Math.max(capacity, 1);
+        start = new long[capacity];
+        duration = new long[capacity];
+        type = new int[capacity];
+        steps = new int[capacity];
+        packageId = new int[capacity];
+    }
+
+    /**
+     * Append a row. Rows added out of order are sorted on the next lookup.
+     */
+    public void add(long startTime, long durationMillis, int workoutType, int stepCount, String packageName) {
+        ensureCapacity(size + 1);
+        if (size > 0 && startTime < start[size - 1]) {
+            mSorted = false;
+        }
+        start[size] = startTime;
+        duration[size] = durationMillis;
+        type[size] = workoutType;
+        steps[size] = stepCount;
+        packageId[size] = internPackageName(packageName);
+        size++;
+    }
+
+    public void add(Workout workout) {
+        add(workout.start, workout.duration, workout.type, workout.stepCount, workout.packageName);
+    }
+
+    /**
+     * @return Index of the first row that starts at or after the time, size if there is none
+     */
+    public int lowerBound(long time) {
+        sort();
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (start[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return Index of the first row that starts after the time, size if there is none
+     */
+    public int upperBound(long time) {
+        sort();
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (start[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public String getPackageName(int index) {
+        return mPackageNames.get(packageId[index]);
+    }
+
+    /**
+     * @return Id of the package name or -1 if no row has it
+     */
+    public int getPackageId(String packageName) {
+        Integer id = mPackageIds.get(packageName != null ? packageName : "");
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Copy a row into a new Workout, for code that still needs one.
+     */
+    public Workout getWorkout(int index) {
+        Workout workout = new Workout();
+        workout.start = start[index];
+        workout.duration = duration[index];
+        workout.type = type[index];
+        workout.stepCount = steps[index];
+        workout.packageName = getPackageName(index);
+        return workout;
+    }
+
+    /**
+     * Remove all rows. The arrays and the package dictionary are kept for reuse.
+     */
+    public void clear() {
+        size = 0;
+        mSorted = true;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= start.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, start.length * 2);
+        start = Arrays.copyOf(start, newCapacity);
+        duration = Arrays.copyOf(duration, newCapacity);
+        type = Arrays.copyOf(type, newCapacity);
+        steps = Arrays.copyOf(steps, newCapacity);
+        packageId = Arrays.copyOf(packageId, newCapacity);
+    }
+
+    /**
+     * Sort the rows by start time if any were added out of order.
+     */
+    public void sort() {
+        if (!mSorted) {
+            quickSort(0, size - 1);
+            mSorted = true;
+        }
+    }
+
+    private int internPackageName(String packageName) {
+        if (packageName == null) {
+            packageName = "";
+        }
+        Integer id = mPackageIds.get(packageName);
+        if (id == null) {
+            id = mPackageNames.size();
+            mPackageNames.add(packageName);
+            mPackageIds.put(packageName, id);
+        }
+        return id;
+    }
+
+    private void quickSort(int low, int high) {
+        while (low < high) {
+            long pivot = start[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (start[i] < pivot) {
+                    i++;
+                }
+                while (start[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // Recurse into the smaller half to bound the stack depth
+            if (j - low < high - i) {
+                quickSort(low, j);
+                low = i;
+            } else {
+                quickSort(i, high);
+                high = j;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        long startTime = start[a];
+        start[a] = start[b];
+        start[b] = startTime;
+        long durationMillis = duration[a];
+        duration[a] = duration[b];
+        duration[b] = durationMillis;
+        int workoutType = type[a];
+        type[a] = type[b];
+        type[b] = workoutType;
+        int stepCount = steps[a];
+        steps[a] = steps[b];
+        steps[b] = stepCount;
+        int id = packageId[a];
+        packageId[a] = packageId[b];
+        packageId[b] = id;
+    }
+}
@@ -1,39 +1,64 @@
 package com.blackcj.fitdata.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Created by chris.black on 5/1/15.
  *
  * Data model for the workout reports.
+ *
+ * Totals are kept in primitive arrays indexed by {@link WorkoutTypes#getOrdinal(int)}, so adding
+ * a row allocates nothing and never touches the caller's Workout. Activity values that aren't in
+ * {@link WorkoutTypes} get a slot of their own the first time they are seen. Keep one report
+ * around and clear it between requests, Workout objects are only created by
+ * {@link #getWorkoutData()}.
  */
 public class WorkoutReport {
-    private Map<Integer, Workout> map =  new HashMap<>();
 
+    private static final int KNOWN_TYPES = WorkoutTypes.values().length;
+
+    private int[] typeValues = new int[KNOWN_TYPES];
+    private boolean[] present = new boolean[KNOWN_TYPES];
+    private long[] starts = new long[KNOWN_TYPES];
+    private long[] durations = new long[KNOWN_TYPES];
+    private long[] steps = new long[KNOWN_TYPES];
+    private int typeCount = KNOWN_TYPES;
+
+    public WorkoutReport() {
+        for (WorkoutTypes type : WorkoutTypes.values()) {
+            typeValues[type.ordinal()] = type.getValue();
+        }
+    }
 
     public void addWorkoutData(Workout workout) {
+        addWorkoutData(workout.type, workout.start, workout.duration, workout.stepCount);
+    }
 
-        if(workout.type == WorkoutTypes.STILL.getValue() || (workout.stepCount == 0 && workout.duration < 60000)) {
+    /**
+     * Add a row. The first row of a type dates the type in the report.
+     */
+    public void addWorkoutData(int type, long start, long duration, int stepCount) {
+        if(type == WorkoutTypes.STILL.getValue() || (stepCount == 0 && duration < 60000)) {
             // Ignore "still" time or workouts less than 1 minute.
             return;
         }
 
-        if(map.get(workout.type) == null) {
-            map.put(workout.type, workout);
-        }else {
-            Workout w = map.get(workout.type);
-            w.stepCount += workout.stepCount;
-            w.duration += workout.duration;
+        int index = indexOf(type);
+        if(!present[index]) {
+            present[index] = true;
+            starts[index] = start;
+            durations[index] = 0;
+            steps[index] = 0;
         }
+        steps[index] += stepCount;
+        durations[index] += duration;
     }
 
     public void clearWorkoutData() {
-        map.clear();
+        Arrays.fill(present, false);
     }
 
     public ArrayList<Workout> getWorkoutData() {
@@ -42,29 +67,30 @@ public class WorkoutReport {
         summary.duration = getTotalDuration();
         summary.start = -1;
         replaceWorkout(summary);
-        ArrayList<Workout> result = new ArrayList<>(map.values());
+        ArrayList<Workout> result = new ArrayList<>(typeCount);
+        for (int i = 0; i < typeCount; i++) {
+            if (present[i]) {
+                result.add(toWorkout(i));
+            }
+        }
         Collections.sort(result);
         return result;
     }
 
     public void replaceWorkout(Workout workout) {
-        if(map.get(workout.type) == null) {
-            map.put(workout.type, workout);
-        }else {
-            Workout w = map.get(workout.type);
-            w = workout;
+        int index = indexOf(workout.type);
+        if(!present[index]) {
+            set(index, workout);
         }
     }
 
     public long getTotalDuration() {
         long totalDuration = 0;
-        Set keys = map.keySet();
-        for (Object key1 : keys) {
-            int key = (int) key1;
-            Workout workout = map.get(key);
-            if (workout.type != WorkoutTypes.TIME.getValue() && workout.type != WorkoutTypes.STILL.getValue()
-                    && workout.type != WorkoutTypes.IN_VEHICLE.getValue()) {
-                totalDuration += workout.duration;
+        for (int i = 0; i < typeCount; i++) {
+            int type = typeValues[i];
+            if (present[i] && type != WorkoutTypes.TIME.getValue() && type != WorkoutTypes.STILL.getValue()
+                    && type != WorkoutTypes.IN_VEHICLE.getValue()) {
+                totalDuration += durations[i];
             }
         }
         return totalDuration;
@@ -75,31 +101,76 @@ public class WorkoutReport {
      * @param workout
      */
     public void setStepData(Workout workout) {
-        if(map.get(workout.type) == null) {
-            map.put(workout.type, workout);
+        int index = indexOf(workout.type);
+        if(!present[index]) {
+            set(index, workout);
         }else {
-            Workout w = map.get(workout.type);
-            w.start = 0; // TODO: Remove this when we have step summary cached
-            w.stepCount = workout.stepCount;
+            starts[index] = 0; // TODO: Remove this when we have step summary cached
+            steps[index] = workout.stepCount;
         }
     }
 
+    /**
+     * @return Copy of the totals for the type or null if the report has none
+     */
     public Workout getWorkoutByType(int type) {
-        return map.get(type);
+        int index = indexOf(type);
+        return present[index] ? toWorkout(index) : null;
     }
 
     public String toString() {
         String result = "";
-        Set keys = map.keySet();
-        for (Object key1 : keys) {
-            int key = (int) key1;
-            Workout value = map.get(key);
-            result += WorkoutTypes.getWorkOutTextById(value.type) + " steps: " + value.stepCount + "\n";
-            result += WorkoutTypes.getWorkOutTextById(value.type) + " duration: " + getDurationBreakdown(value.duration) + "\n";
+        for (int i = 0; i < typeCount; i++) {
+            if (present[i]) {
+                result += WorkoutTypes.getWorkOutTextById(typeValues[i]) + " steps: " + steps[i] + "\n";
+                result += WorkoutTypes.getWorkOutTextById(typeValues[i]) + " duration: " + getDurationBreakdown(durations[i]) + "\n";
+            }
         }
         return result;
     }
 
+    /**
+     * @return Slot of the activity type, a new one is added for types not in WorkoutTypes
+     */
+    private int indexOf(int type) {
+        int index = WorkoutTypes.getOrdinal(type);
+        if (index >= 0) {
+            return index;
+        }
+        for (int i = KNOWN_TYPES; i < typeCount; i++) {
+            if (typeValues[i] == type) {
+                return i;
+            }
+        }
+        if (typeCount == typeValues.length) {
+            int capacity = typeCount + 8;
+            typeValues = Arrays.copyOf(typeValues, capacity);
+            present = Arrays.copyOf(present, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+            steps = Arrays.copyOf(steps, capacity);
+        }
+        typeValues[typeCount] = type;
+        present[typeCount] = false;
+        return typeCount++;
+    }
+
+    private void set(int index, Workout workout) {
+        present[index] = true;
+        starts[index] = workout.start;
+        durations[index] = workout.duration;
+        steps[index] = workout.stepCount;
+    }
+
+    private Workout toWorkout(int index) {
+        Workout workout = new Workout();
+        workout.type = typeValues[index];
+        workout.start = starts[index];
+        workout.duration = durations[index];
+        workout.stepCount = (int) steps[index];
+        return workout;
+    }
+
     private double miliToMinutes(long mili) {
         return Math.floor(mili / 1000 / 60);
     }
@@ -3,6 +3,8 @@ package com.blackcj.fitdata.model;
 import com.blackcj.fitdata.R;
 import com.google.android.gms.fitness.FitnessActivities;
 
+import java.util.Arrays;
+
 /**
  * Created by chris.black on 5/1/15.
  *
@@ -40,6 +42,31 @@ public enum WorkoutTypes {
         return value;
     }
 
+    private static final int MIN_VALUE = -2;
+    private static final int[] ORDINALS;
+
+    static {
+        WorkoutTypes[] types = values();
+        int maxValue = MIN_VALUE;
+        for (WorkoutTypes type : types) {
+            maxValue = Math.max(maxValue, type.value);
+        }
+        ORDINALS = new int[maxValue - MIN_VALUE + 1];
+        Arrays.fill(ORDINALS, -1);
+        for (WorkoutTypes type : types) {
+            ORDINALS[type.value - MIN_VALUE] = type.ordinal();
+        }
+    }
+
+    /**
+     * @return Dense index of the activity value, 0 up to the number of types, or -1 if it is
+     * not one of the types listed here
+     */
+    public static int getOrdinal(int id) {
+        int index = id - MIN_VALUE;
+        return index >= 0 && index < ORDINALS.length ? ORDINALS[index] : -1;
+    }
+
     public static boolean isActiveWorkout(int id) {
         boolean result = true;
         switch (id) {
@@ -6,14 +6,23 @@ import org.achartengine.model.XYMultipleSeriesDataset;
 import org.achartengine.renderer.XYMultipleSeriesRenderer;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 
 /**
  * Created by Chris BLack
  *
  * Base class for report graphs
+ *
+ * Series set with {@link #setSeries(int, int[])} are kept in a {@link SeriesPyramid}. Only the
+ * visible range and one screen on either side is drawn, at the level that keeps it under
+ * {@link #MAX_VISIBLE_POINTS} points per series, so the number of points stays bounded however
+ * long the series are and however far the chart is zoomed out.
  */
 public abstract class BaseReportGraph implements IReportGraph, Serializable {
 
+    /** Most points drawn per series for the visible range. */
+    public static final int MAX_VISIBLE_POINTS = 60;
+
     protected int densityDPI = 1;
     double maxData = 15;
     double minData = 10;
@@ -24,6 +33,15 @@ public abstract class BaseReportGraph implements IReportGraph, Serializable {
     /** The main renderer that includes all the renderer customizing a chart. */
     protected XYMultipleSeriesRenderer mRenderer = new XYMultipleSeriesRenderer();
 
+    protected final ArrayList<SeriesPyramid> mPyramids = new ArrayList<>();
+    /** Number of series set since the data was cleared. */
+    protected int mSeriesCount = 0;
+    /** Length of the longest series. */
+    protected int mSegmentCount = 0;
+    /** Level that is drawn, -1 when the series have to be drawn again. */
+    protected int mLevel = -1;
+    private int mRenderedStart = 0;
+    private int mRenderedEnd = 0;
 
     public void setDisplayMetrics(int dpi) {
         densityDPI = dpi;
@@ -47,4 +65,85 @@ public abstract class BaseReportGraph implements IReportGraph, Serializable {
     public void setGoal(int goalValue) {
         mGoal = goalValue;
     }
+
+    @Override
+    public void setSeries(int series, int[] values) {
+        while (mPyramids.size() <= series) {
+            mPyramids.add(new SeriesPyramid());
+        }
+        SeriesPyramid pyramid = mPyramids.get(series);
+        pyramid.build(values);
+        mSeriesCount = Math.max(mSeriesCount, series + 1);
+        mSegmentCount = Math.max(mSegmentCount, values.length);
+        if (values.length > 0) {
+            maxData = Math.max(maxData, pyramid.getRangeMax(0, values.length));
+            minData = Math.min(minData, pyramid.getRangeMin(0, values.length));
+        }
+        // Draw again on the next call to setVisibleRange
+        mLevel = -1;
+    }
+
+    @Override
+    public boolean setVisibleRange(double start, double stop) {
+        if (mSeriesCount == 0) {
+            return false;
+        }
+        double span = Math.max(stop - start, 1);
+        int level = Math.min(SeriesPyramid.getLevel(span, MAX_VISIBLE_POINTS),
+                mPyramids.get(0).getLevelCount() - 1);
+        int visibleStart = Math.max((int) Math.floor(start), 0);
+        int visibleEnd = Math.min((int) Math.ceil(stop) + 1, mSegmentCount);
+
+        boolean changed = false;
+        if (level != mLevel || visibleStart < mRenderedStart || visibleEnd > mRenderedEnd) {
+            // Draw one screen past either side so small pans don't draw again
+            int bucketSize = 1 << level;
+            mRenderedStart = Math.max((int) Math.floor(start - span), 0) / bucketSize * bucketSize;
+            mRenderedEnd = Math.min((int) Math.ceil(stop + span) + 1, mSegmentCount);
+            mLevel = level;
+            for (int series = 0; series < mSeriesCount; series++) {
+                renderSeries(series, mPyramids.get(series), level, mRenderedStart >> level,
+                        (mRenderedEnd + bucketSize - 1) >> level);
+            }
+            changed = true;
+        }
+
+        // Scale the Y axis to the largest value on screen
+        int visibleMax = 15;
+        for (int series = 0; series < mSeriesCount; series++) {
+            visibleMax = Math.max(visibleMax, mPyramids.get(series).getRangeMax(visibleStart, visibleEnd));
+        }
+        double yAxisMax = visibleMax + (visibleMax / 5.0);
+        if (yAxisMax != mRenderer.getYAxisMax()) {
+            mRenderer.setYAxisMax(yAxisMax);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Replace the points of a series with the buckets of a level.
+     *
+     * @param firstBucket First bucket to draw
+     * @param endBucket Bucket after the last one to draw
+     */
+    protected abstract void renderSeries(int series, SeriesPyramid pyramid, int level, int firstBucket, int endBucket);
+
+    /**
+     * @return Position of the middle of a bucket on the X axis
+     */
+    protected double getBucketX(SeriesPyramid pyramid, int level, int bucket) {
+        int first = bucket << level;
+        int last = Math.min(first + (1 << level), pyramid.getLength()) - 1;
+        return (first + last) / 2.0;
+    }
+
+    /**
+     * Forget the series, called when the data is cleared.
+     */
+    protected void clearSeries() {
+        mSeriesCount = 0;
+        mSegmentCount = 0;
+        mLevel = -1;
+    }
 }
@@ -13,6 +13,8 @@ public interface IReportGraph {
     GraphicalView getChartGraph(Activity activity);
     void clearData();
     void addWorkout(int series, int data, int position);
+    void setSeries(int series, int[] values);
+    boolean setVisibleRange(double start, double stop);
     void updateRenderer();
     void setGoal(int goalValue);
     void setDisplayMetrics(int dpi);
@@ -52,6 +52,7 @@ public class MultipleLineGraphs extends BaseReportGraph {
     public void clearData() {
         maxData = 15;
         minData = 10;
+        clearSeries();
         for (int n = 0; n < mSeriesDataSet.size(); n++) {
             mSeriesDataSet.get(n).clear();
         }
@@ -64,14 +65,23 @@ public class MultipleLineGraphs extends BaseReportGraph {
         mSeriesDataSet.get(series).add(position, data);
     }
 
+    @Override
+    protected void renderSeries(int series, SeriesPyramid pyramid, int level, int firstBucket, int endBucket) {
+        XYSeries seriesData = mSeriesDataSet.get(series);
+        seriesData.clear();
+        for (int bucket = firstBucket; bucket < endBucket; bucket++) {
+            seriesData.add(getBucketX(pyramid, level, bucket), pyramid.getAverage(level, bucket));
+        }
+    }
+
     @Override
     public void updateRenderer() {
         mRenderer.clearXTextLabels();
         mRenderer.setYAxisMax(Math.round(maxData) + (maxData / 5));
-        mRenderer.setXAxisMin(mSeriesDataSet.get(0).getItemCount() - 7);
-        mRenderer.setXAxisMax(mSeriesDataSet.get(0).getItemCount());
-        mRenderer.setPanLimits(new double[]{-5, mSeriesDataSet.get(0).getItemCount() + 5, 0, 0});
-        mRenderer.setZoomLimits(new double[]{-5, mSeriesDataSet.get(0).getItemCount() + 5, 0, 0});
+        mRenderer.setXAxisMin(mSegmentCount - 7);
+        mRenderer.setXAxisMax(mSegmentCount);
+        mRenderer.setPanLimits(new double[]{-5, mSegmentCount + 5, 0, 0});
+        mRenderer.setZoomLimits(new double[]{-5, mSegmentCount + 5, 0, 0});
         // An array containing the margin size values, in this order: top, left, bottom, right
         mRenderer.setMargins(new int[]{5, 0, 5, 0});
 
@@ -85,6 +95,11 @@ public class MultipleLineGraphs extends BaseReportGraph {
 
     @Override
     public void addRenderer(int series, Activity activity, int color) {
+        if (series < mSeriesDataSet.size()) {
+            // Reloading the data, keep the series and only update its color
+            mRenderer.getSeriesRendererAt(series).setColor(color);
+            return;
+        }
         XYSeriesRenderer mCurrentRenderer = new XYSeriesRenderer();
         mCurrentRenderer.setLineWidth(getDPI(3));
         mCurrentRenderer.setColor(color);
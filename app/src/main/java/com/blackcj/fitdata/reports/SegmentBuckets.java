@@ -0,0 +1,157 @@
+package com.blackcj.fitdata.reports;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Created by Chris Black
+ *
+ * Per segment totals for each series of a report graph, kept in primitive arrays. A segment is a
+ * local day or, when grouping by seven, a week that starts on the locale's first day of the week.
+ * The last segment holds the current time. Series are ordered by activity type and handed to
+ * {@link IReportGraph#setSeries(int, int[])} as they are.
+ *
+ * The arrays are kept when the buckets are reset, so reusing one instance for the next load
+ * doesn't allocate unless the number of segments changes.
+ */
+public class SegmentBuckets {
+
+    private static final long DAY_MILLIS = 1000L * 60 * 60 * 24;
+    private static final long WEEK_MILLIS = DAY_MILLIS * 7;
+
+    public int size = 0;
+    public int[] types = new int[4];
+    public int[][] values = new int[4][];
+
+    private final Calendar mCal = Calendar.getInstance();
+    private int multiplier = 1;
+    private int numSegments = 0;
+    private long lastDay;
+    private long lastWeek;
+
+    /**
+     * Remove all series and set up the segments that end with the one holding the given time.
+     *
+     * @param multiplier Days per segment, 7 groups by week
+     * @param numSegments Number of segments in each series
+     * @param now Time that falls in the last segment
+     */
+    public void reset(int multiplier, int numSegments, long now) {
+        this.multiplier = multiplier;
+        this.numSegments = numSegments;
+        size = 0;
+        lastDay = getDayStart(now);
+        lastWeek = getWeekStart(now);
+    }
+
+    /**
+     * Copy the segments and every series of another instance.
+     */
+    public void copyFrom(SegmentBuckets other) {
+        multiplier = other.multiplier;
+        numSegments = other.numSegments;
+        lastDay = other.lastDay;
+        lastWeek = other.lastWeek;
+        size = 0;
+        for (int n = 0; n < other.size; n++) {
+            System.arraycopy(other.values[n], 0, getSeries(other.types[n]), 0, numSegments);
+        }
+    }
+
+    public int getSegmentCount() {
+        return numSegments;
+    }
+
+    /**
+     * @return Segment that holds the time or -1 if it is out of range
+     */
+    public int getSegment(long time) {
+        long id = numSegments - 1 - getSegmentsAgo(time);
+        return id >= 0 && id < numSegments ? (int) id : -1;
+    }
+
+    /**
+     * @return Number of segments between the one that holds the time and the last one, negative
+     * for times after the last segment
+     */
+    public long getSegmentsAgo(long time) {
+        // Count whole days or weeks rather than weeks of the year so the history can span years,
+        // rounding absorbs the hour gained or lost to daylight saving
+        if (multiplier == 7) {
+            return Math.round((lastWeek - getWeekStart(time)) / (double) WEEK_MILLIS);
+        }
+        long days = Math.round((lastDay - getDayStart(time)) / (double) DAY_MILLIS);
+        return days >= 0 ? days / multiplier : (days - multiplier + 1) / multiplier;
+    }
+
+    /**
+     * @return Local midnight that starts the segment, segments past the last one can be asked for
+     */
+    public long getSegmentStart(int segment) {
+        int segmentsAgo = numSegments - 1 - segment;
+        if (multiplier == 7) {
+            mCal.setTimeInMillis(lastWeek);
+            mCal.add(Calendar.DAY_OF_MONTH, -7 * segmentsAgo);
+        } else {
+            // The last segment ends with the last day, so each segment starts multiplier - 1 days before its last
+            mCal.setTimeInMillis(lastDay);
+            mCal.add(Calendar.DAY_OF_MONTH, -multiplier * segmentsAgo - (multiplier - 1));
+        }
+        // Midnight again, the last day may have started later where daylight saving begins at midnight
+        return getDayStart(mCal.getTimeInMillis());
+    }
+
+    private long getDayStart(long time) {
+        mCal.setTimeInMillis(time);
+        mCal.set(Calendar.HOUR_OF_DAY, 0);
+        mCal.set(Calendar.MINUTE, 0);
+        mCal.set(Calendar.SECOND, 0);
+        mCal.set(Calendar.MILLISECOND, 0);
+        return mCal.getTimeInMillis();
+    }
+
+    /**
+     * @return Midnight of the first day of the locale's week that holds the time
+     */
+    private long getWeekStart(long time) {
+        getDayStart(time);
+        int daysIntoWeek = (mCal.get(Calendar.DAY_OF_WEEK) - mCal.getFirstDayOfWeek() + 7) % 7;
+        mCal.add(Calendar.DAY_OF_MONTH, -daysIntoWeek);
+        return mCal.getTimeInMillis();
+    }
+
+    /**
+     * Add a value to a segment of the series for the type, creating the series if needed.
+     */
+    public void add(int type, int segment, int value) {
+        getSeries(type)[segment] += value;
+    }
+
+    /**
+     * @return Values of the series for the type, zeroed when it is first used after a reset
+     */
+    public int[] getSeries(int type) {
+        int index = Arrays.binarySearch(types, 0, size, type);
+        if (index >= 0) {
+            return values[index];
+        }
+        index = -index - 1;
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        // Shift the later series up, the spare buffer past the end moves into the gap
+        int[] buffer = values[size];
+        System.arraycopy(types, index, types, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        if (buffer == null || buffer.length != numSegments) {
+            buffer = new int[numSegments];
+        } else {
+            Arrays.fill(buffer, 0);
+        }
+        types[index] = type;
+        values[index] = buffer;
+        size++;
+        return buffer;
+    }
+}
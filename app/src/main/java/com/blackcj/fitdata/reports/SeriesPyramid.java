@@ -0,0 +1,160 @@
+package com.blackcj.fitdata.reports;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Chris Black
+ *
+ * Min, max and sum of a series at every power of two resolution. Level 0 holds the values as they
+ * are, each bucket of the next level combines two buckets of the level below. A chart showing
+ * years of daily values picks the level that keeps the number of points on screen bounded and
+ * draws the averages of that level.
+ *
+ * Min and max over any range are answered from the levels in O(log n), which is used to scale the
+ * Y axis to what is on screen. Only uses plain Java so it runs on a desktop JVM.
+ */
+public class SeriesPyramid implements Serializable {
+
+    private int length = 0;
+    private final List<long[]> mSums = new ArrayList<>();
+    private final List<int[]> mMins = new ArrayList<>();
+    private final List<int[]> mMaxs = new ArrayList<>();
+
+    /**
+     * Rebuild every level from the values. Arrays of the previous build are reused when the
+     * length hasn't changed.
+     */
+    public void build(int[] values) {
+        if (values.length != length || mSums.isEmpty()) {
+            mSums.clear();
+            mMins.clear();
+            mMaxs.clear();
+            length = values.length;
+            int count = length;
+            do {
+                mSums.add(new long[count]);
+                mMins.add(new int[count]);
+                mMaxs.add(new int[count]);
+                count = (count + 1) / 2;
+            } while (mSums.get(mSums.size() - 1).length > 1);
+        }
+        long[] sums = mSums.get(0);
+        int[] mins = mMins.get(0);
+        int[] maxs = mMaxs.get(0);
+        for (int i = 0; i < length; i++) {
+            sums[i] = values[i];
+            mins[i] = values[i];
+            maxs[i] = values[i];
+        }
+        for (int level = 1; level < mSums.size(); level++) {
+            long[] childSums = sums;
+            int[] childMins = mins;
+            int[] childMaxs = maxs;
+            sums = mSums.get(level);
+            mins = mMins.get(level);
+            maxs = mMaxs.get(level);
+            for (int b = 0; b < sums.length; b++) {
+                int left = b * 2;
+                int right = left + 1;
+                if (right < childSums.length) {
+                    sums[b] = childSums[left] + childSums[right];
+                    mins[b] = Math.min(childMins[left], childMins[right]);
+                    maxs[b] = Math.max(childMaxs[left], childMaxs[right]);
+                } else {
+                    sums[b] = childSums[left];
+                    mins[b] = childMins[left];
+                    maxs[b] = childMaxs[left];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of values at level 0
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getLevelCount() {
+        return mSums.size();
+    }
+
+    public int getBucketCount(int level) {
+        return mSums.get(level).length;
+    }
+
+    public long getSum(int level, int bucket) {
+        return mSums.get(level)[bucket];
+    }
+
+    public int getMin(int level, int bucket) {
+        return mMins.get(level)[bucket];
+    }
+
+    public int getMax(int level, int bucket) {
+        return mMaxs.get(level)[bucket];
+    }
+
+    /**
+     * @return Average of the values in the bucket, the last bucket of a level may hold fewer
+     */
+    public int getAverage(int level, int bucket) {
+        int first = bucket << level;
+        int width = Math.min(first + (1 << level), length) - first;
+        return (int) (mSums.get(level)[bucket] / width);
+    }
+
+    /**
+     * @return Smallest value from index start up to but not including end, 0 if the range is empty
+     */
+    public int getRangeMin(int start, int end) {
+        return query(start, end, mMins, false);
+    }
+
+    /**
+     * @return Largest value from index start up to but not including end, 0 if the range is empty
+     */
+    public int getRangeMax(int start, int end) {
+        return query(start, end, mMaxs, true);
+    }
+
+    private int query(int start, int end, List<int[]> levels, boolean max) {
+        start = Math.max(start, 0);
+        end = Math.min(end, length);
+        if (start >= end) {
+            return 0;
+        }
+        int result = max ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        // Take the unpaired bucket at either end, then continue with the parents of the rest
+        for (int level = 0; start < end; level++) {
+            int[] values = levels.get(level);
+            if ((start & 1) != 0) {
+                result = max ? Math.max(result, values[start]) : Math.min(result, values[start]);
+                start++;
+            }
+            if ((end & 1) != 0) {
+                end--;
+                result = max ? Math.max(result, values[end]) : Math.min(result, values[end]);
+            }
+            start >>= 1;
+            end >>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * @param span Number of level 0 values that are visible
+     * @param maxPoints Most points that should be drawn for the span
+     * @return Finest level that draws the span with at most maxPoints points
+     */
+    public static int getLevel(double span, int maxPoints) {
+        int level = 0;
+        while (span / (1 << level) > maxPoints && level < 30) {
+            level++;
+        }
+        return level;
+    }
+}
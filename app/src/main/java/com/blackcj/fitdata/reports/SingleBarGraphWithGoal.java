@@ -41,6 +41,7 @@ public class SingleBarGraphWithGoal extends BaseReportGraph {
     public void clearData() {
         maxData = 15;
         minData = 10;
+        clearSeries();
         mCurrentSeries.clear();
         mGoalSeries.clear();
     }
@@ -98,15 +99,32 @@ public class SingleBarGraphWithGoal extends BaseReportGraph {
         mCurrentSeries.add(position, data);
     }
 
+    /**
+     * Draw the buckets of a level as bars, the goal is drawn for every bar.
+     */
+    @Override
+    protected void renderSeries(int series, SeriesPyramid pyramid, int level, int firstBucket, int endBucket) {
+        mCurrentSeries.clear();
+        mGoalSeries.clear();
+        for (int bucket = firstBucket; bucket < endBucket; bucket++) {
+            double x = getBucketX(pyramid, level, bucket);
+            int data = pyramid.getAverage(level, bucket);
+            if (data >= 0) {
+                mGoalSeries.add(x, mGoal);
+            }
+            mCurrentSeries.add(x, data);
+        }
+    }
+
     @Override
     public void updateRenderer() {
         mRenderer.clearXTextLabels();
         mRenderer.setYAxisMax(Math.round(maxData) + (maxData / 5));
         mRenderer.setYAxisMin(0);
-        mRenderer.setXAxisMin(mCurrentSeries.getItemCount() - 7);
-        mRenderer.setXAxisMax(mCurrentSeries.getItemCount());
-        mRenderer.setPanLimits(new double[]{-5, mCurrentSeries.getItemCount() + 5, 0, 0});
-        mRenderer.setZoomLimits(new double[]{-5, mCurrentSeries.getItemCount() + 5, 0, 0});
+        mRenderer.setXAxisMin(mSegmentCount - 7);
+        mRenderer.setXAxisMax(mSegmentCount);
+        mRenderer.setPanLimits(new double[]{-5, mSegmentCount + 5, 0, 0});
+        mRenderer.setZoomLimits(new double[]{-5, mSegmentCount + 5, 0, 0});
         // An array containing the margin size values, in this order: top, left, bottom, right
         mRenderer.setMargins(new int[]{getDPI(12),0,getDPI(10),0});
 
@@ -124,7 +142,12 @@ public class SingleBarGraphWithGoal extends BaseReportGraph {
 
     @Override
     public double getDataAtPoint(double xPos) {
-        return mCurrentSeries.getY((int)xPos);
+        // Value of the bar that is drawn at the position
+        int index = (int) Math.round(xPos);
+        if (mSeriesCount == 0 || mLevel < 0 || index < 0 || index >= mSegmentCount) {
+            return 0;
+        }
+        return mPyramids.get(0).getAverage(mLevel, index >> mLevel);
     }
 
 }
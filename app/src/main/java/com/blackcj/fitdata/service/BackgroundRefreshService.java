@@ -7,8 +7,8 @@ import android.os.Binder;
 import android.os.IBinder;
 import android.os.PowerManager;
 
-import com.blackcj.fitdata.Utilities;
 import com.blackcj.fitdata.database.DataManager;
+import com.blackcj.fitdata.model.DataChange;
 import com.blackcj.fitdata.model.UserPreferences;
 import com.blackcj.fitdata.model.Workout;
 import com.crashlytics.android.Crashlytics;
@@ -156,7 +156,7 @@ public class BackgroundRefreshService extends Service implements DataManager.IDa
     }
 
     @Override
-    public void onDataChanged(Utilities.TimeFrame timeFrame) {}
+    public void onDataChanged(DataChange change) {}
 
     @Override
     public void onDataComplete() {
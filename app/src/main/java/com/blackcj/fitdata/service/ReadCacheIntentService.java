@@ -9,24 +9,25 @@ import android.util.Log;
 
 import com.blackcj.fitdata.Utilities;
 import com.blackcj.fitdata.activity.MainActivity;
-import com.blackcj.fitdata.database.CupboardSQLiteOpenHelper;
+import com.blackcj.fitdata.database.CacheManager;
+import com.blackcj.fitdata.database.DailyRollup;
 import com.blackcj.fitdata.database.MockData;
+import com.blackcj.fitdata.database.ReportCache;
+import com.blackcj.fitdata.database.RollupStore;
+import com.blackcj.fitdata.database.SimpleDBHelper;
 import com.blackcj.fitdata.model.Workout;
 import com.blackcj.fitdata.model.WorkoutReport;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 
-import nl.qbusict.cupboard.QueryResultIterable;
-
-import static nl.qbusict.cupboard.CupboardFactory.cupboard;
-
 /**
  * Created by Chris Black
  */
 public class ReadCacheIntentService extends IntentService {
 
     private WorkoutReport workoutReport = new WorkoutReport();
+    private RollupStore.Totals totals = new RollupStore.Totals();
     public final static String TAG = "ReadHistoricalService";
     private WeakReference<ResultReceiver> mReceiver;
     public ReadCacheIntentService() {
@@ -38,8 +39,6 @@ public class ReadCacheIntentService extends IntentService {
     protected void onHandleIntent(Intent intent) {
         ResultReceiver resultReceiver = intent.getParcelableExtra(MainActivity.RECEIVER_TAG);
         mReceiver = new WeakReference<>(resultReceiver);
-        final CupboardSQLiteOpenHelper dbHelper = new CupboardSQLiteOpenHelper(this);
-        final SQLiteDatabase mDb = dbHelper.getReadableDatabase();
         Utilities.TimeFrame mTimeFrame = (Utilities.TimeFrame) intent.getSerializableExtra("TimeFrame");
         ArrayList<Workout> report;
         if (mockData) {
@@ -64,18 +63,25 @@ public class ReadCacheIntentService extends IntentService {
             long startTime = Utilities.getTimeFrameStart(mTimeFrame);
             long endTime = Utilities.getTimeFrameEnd(mTimeFrame);
             workoutReport.clearWorkoutData();
-            if (!mDb.isOpen()) {
-                Log.w(TAG, "db is closed!");
-                return;
-            }
-            QueryResultIterable<Workout> itr = cupboard().withDatabase(mDb).query(Workout.class).withSelection("start >= ? AND start <= ?", "" + startTime, "" + endTime).query();
-            for (Workout workout : itr) {
-                if (workout.start > startTime && workout.start <= endTime) {
-                    workoutReport.addWorkoutData(workout);
+            int generation = ReportCache.getGeneration();
+            final SQLiteDatabase mDb = SimpleDBHelper.INSTANCE.acquireReader(this);
+            try {
+                if (!mDb.isOpen()) {
+                    Log.w(TAG, "db is closed!");
+                    return;
+                }
+                if (!DailyRollup.needsRebuild(this)) {
+                    readRollup(mDb, startTime, endTime);
+                } else {
+                    // The rollup is still being built, add up the rows in SQL
+                    CacheManager.readWorkoutTotals(mDb, startTime, endTime, workoutReport);
                 }
+            } finally {
+                SimpleDBHelper.INSTANCE.releaseReader(mDb);
             }
-            itr.close();
             report = workoutReport.getWorkoutData();
+            ReportCache.put(mTimeFrame, startTime, endTime, report, generation);
+            Log.d(TAG, "Report cache hits: " + ReportCache.getHitCount() + " misses: " + ReportCache.getMissCount());
 
         }
         ResultReceiver receiver = mReceiver.get();
@@ -86,6 +92,17 @@ public class ReadCacheIntentService extends IntentService {
         }else {
             Log.w(TAG, "Weak listener is NULL.");
         }
-        dbHelper.close();
+    }
+
+    /**
+     * Fill the report from the daily rollup. Time frames start at midnight, so whole days cover
+     * them. Each type is dated by its first day, which keeps the report in the same order.
+     */
+    private void readRollup(SQLiteDatabase db, long startTime, long endTime) {
+        RollupStore store = DailyRollup.getStore(db);
+        store.query(startTime, endTime, totals);
+        for (int i = 0; i < totals.size; i++) {
+            workoutReport.addWorkoutData(totals.types[i], totals.firstDays[i], totals.durations[i], (int) totals.steps[i]);
+        }
     }
 }
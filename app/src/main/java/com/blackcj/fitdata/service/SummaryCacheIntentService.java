@@ -8,57 +8,43 @@ import android.os.ResultReceiver;
 import android.util.Log;
 
 import com.blackcj.fitdata.activity.MainActivity;
-import com.blackcj.fitdata.database.CupboardSQLiteOpenHelper;
+import com.blackcj.fitdata.database.DailyRollup;
+import com.blackcj.fitdata.database.RunningSummary;
+import com.blackcj.fitdata.database.SimpleDBHelper;
 import com.blackcj.fitdata.model.SummaryData;
-import com.blackcj.fitdata.model.WorkoutReport;
 
 import java.lang.ref.WeakReference;
 
 /**
  * Created by Chris Black
  *
- * This class is a work in progress. It will be used to return summary data to display on
- * the report page.
+ * Returns summary data to display on the report page: today, this week and the daily and weekly
+ * averages of the last few weeks. Answered from the {@link RunningSummary}, which only reads the
+ * days that changed since the last summary.
  */
 public class SummaryCacheIntentService  extends IntentService {
 
-    private WorkoutReport workoutReport = new WorkoutReport();
     public final static String TAG = "ReadHistoricalService";
     private WeakReference<ResultReceiver> mReceiver;
     public SummaryCacheIntentService() {
         super(TAG);
     }
-    private boolean mockData = true;
 
     @Override
     protected void onHandleIntent(Intent intent) {
         ResultReceiver resultReceiver = intent.getParcelableExtra(MainActivity.RECEIVER_TAG);
         mReceiver = new WeakReference<>(resultReceiver);
-        final CupboardSQLiteOpenHelper dbHelper = new CupboardSQLiteOpenHelper(this);
-        final SQLiteDatabase mDb = dbHelper.getReadableDatabase();
         int workoutType = intent.getIntExtra("WorkoutType", 0);
         SummaryData report = new SummaryData();
-        if (mockData) {
-            report.activityType = -2;
-            report.averageDailyData = 10234;
-            report.todayData = 4532;
-            report.averageWeeklyData = 70000;
-            report.weekData = 12430;
-        } else {
-            /*
-            workoutReport.clearWorkoutData();
+        final SQLiteDatabase mDb = SimpleDBHelper.INSTANCE.acquireReader(this);
+        try {
             if (!mDb.isOpen()) {
                 Log.w(TAG, "db is closed!");
                 return;
             }
-            QueryResultIterable<Workout> itr = cupboard().withDatabase(mDb).query(Workout.class).withSelection("start >= ?", "" + startTime).query();
-            for (Workout workout : itr) {
-                if (workout.start > startTime) {
-                    workoutReport.addWorkoutData(workout);
-                }
-            }
-            itr.close();
-            */
+            RunningSummary.INSTANCE.getSummary(mDb, DailyRollup.needsRebuild(this), workoutType, report);
+        } finally {
+            SimpleDBHelper.INSTANCE.releaseReader(mDb);
         }
         ResultReceiver receiver = mReceiver.get();
         if(receiver != null) {
@@ -68,6 +54,5 @@ public class SummaryCacheIntentService  extends IntentService {
         }else {
             Log.w(TAG, "Weak listener is NULL.");
         }
-        dbHelper.close();
     }
 }
@@ -0,0 +1,337 @@
+package com.blackcj.fitdata.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Chris Black
+ *
+ * In memory {@link FitnessSource} for load testing the sync without a device or a Google
+ * account. It only uses plain Java so it runs on a desktop JVM, see {@link SyncHarnessTest}.
+ *
+ * Every day is generated from the seed and the day number alone, so any range can be read in any
+ * order and always returns the same segments and step deltas. Years of history cost nothing
+ * until they are read. Each request sleeps for a fixed latency plus a latency per day of range
+ * to stand in for the network.
+ *
+ * Sessions and activities inserted through the source are kept in memory and returned by later
+ * reads. Like Google Fit, only inserted data can be deleted.
+ */
+public class FakeFitnessSource implements FitnessSource {
+
+    public static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+    public static final String GENERATED_PACKAGE_NAME = "com.google.android.gms";
+
+    // Activity values, see WorkoutTypes
+    private static final int IN_VEHICLE = 0;
+    private static final int BIKING = 1;
+    private static final int STILL = 3;
+    private static final int WALKING = 7;
+    private static final int RUNNING = 8;
+    private static final int SLEEP = 72;
+
+    private static final long MINUTE_MILLIS = 1000 * 60;
+    private static final long DELTA_MILLIS = MINUTE_MILLIS * 5;
+
+    private final long mSeed;
+    private final long mLatencyMillis;
+    private final long mLatencyPerDayMillis;
+    private final String mPackageName;
+    private final List<Segment> mInsertedSegments = new ArrayList<>();
+    private final List<InsertedSteps> mInsertedSteps = new ArrayList<>();
+    private final Set<String> mSubscriptions = new LinkedHashSet<>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    public FakeFitnessSource(long seed) {
+        this(seed, 0, 0, "com.blackcj.fitdata");
+    }
+
+    /**
+     * @param seed Seed for the generated history
+     * @param latencyMillis Delay added to every request
+     * @param latencyPerDayMillis Delay added for each day in the range of a read
+     * @param packageName Package name stored with inserted data
+     */
+    public FakeFitnessSource(long seed, long latencyMillis, long latencyPerDayMillis, String packageName) {
+        mSeed = seed;
+        mLatencyMillis = latencyMillis;
+        mLatencyPerDayMillis = latencyPerDayMillis;
+        mPackageName = packageName;
+    }
+
+    /**
+     * @return Number of requests made so far
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    @Override
+    public StepBucketResult readDailySteps(long startTime, long endTime) {
+        StepBucketResult result = new StepBucketResult();
+        if (!simulateLatency(startTime, endTime, result)) {
+            return result;
+        }
+        int bucketCount = (int) Math.max(0, (endTime - startTime + DAY_MILLIS - 1) / DAY_MILLIS);
+        result.bucketTimes = new long[bucketCount];
+        result.bucketSteps = new int[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            long bucketStart = startTime + i * DAY_MILLIS;
+            result.bucketTimes[i] = (bucketStart + Math.min(bucketStart + DAY_MILLIS, endTime)) / 2;
+        }
+        StepDeltaResult deltas = collectStepDeltas(startTime, endTime);
+        for (int i = 0; i < deltas.count; i++) {
+            if (deltas.startTimes[i] >= startTime && deltas.startTimes[i] < endTime) {
+                result.bucketSteps[(int) ((deltas.startTimes[i] - startTime) / DAY_MILLIS)] += deltas.steps[i];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public SegmentResult readActivitySegments(long startTime, long endTime, boolean serverQueries, long timeoutMinutes) {
+        SegmentResult result = new SegmentResult();
+        if (!simulateLatency(startTime, endTime, result)) {
+            return result;
+        }
+        for (long day = firstDay(startTime); day * DAY_MILLIS < endTime; day++) {
+            for (Segment segment : generateSegments(day)) {
+                if (segment.end > startTime && segment.start < endTime) {
+                    result.segments.add(segment);
+                }
+            }
+        }
+        synchronized (this) {
+            for (Segment segment : mInsertedSegments) {
+                if (segment.end > startTime && segment.start < endTime) {
+                    result.segments.add(segment);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public StepDeltaResult readStepDeltas(long startTime, long endTime) {
+        StepDeltaResult result = new StepDeltaResult();
+        if (!simulateLatency(startTime, endTime, result)) {
+            return result;
+        }
+        return collectStepDeltas(startTime, endTime);
+    }
+
+    @Override
+    public Result insertSession(long startTime, long endTime, int activityType, int stepCount) {
+        Result result = new Result();
+        if (simulateLatency(startTime, startTime, result)) {
+            synchronized (this) {
+                mInsertedSegments.add(new Segment(startTime, endTime, activityType, mPackageName));
+                mInsertedSteps.add(new InsertedSteps(startTime, endTime, stepCount));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Result insertActivity(long startTime, long endTime, int activityType) {
+        Result result = new Result();
+        if (simulateLatency(startTime, startTime, result)) {
+            synchronized (this) {
+                mInsertedSegments.add(new Segment(startTime, endTime, activityType, mPackageName));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void deleteData(long startTime, long endTime, Callback<Result> callback) {
+        Result result = new Result();
+        if (simulateLatency(startTime, startTime, result)) {
+            synchronized (this) {
+                Iterator<Segment> segments = mInsertedSegments.iterator();
+                while (segments.hasNext()) {
+                    Segment segment = segments.next();
+                    if (segment.start >= startTime && segment.start < endTime) {
+                        segments.remove();
+                    }
+                }
+                Iterator<InsertedSteps> steps = mInsertedSteps.iterator();
+                while (steps.hasNext()) {
+                    InsertedSteps inserted = steps.next();
+                    if (inserted.start >= startTime && inserted.start < endTime) {
+                        steps.remove();
+                    }
+                }
+            }
+        }
+        callback.onResult(result);
+    }
+
+    @Override
+    public void subscribe(String dataTypeName, Callback<Result> callback) {
+        synchronized (this) {
+            mSubscriptions.add(dataTypeName);
+        }
+        callback.onResult(new Result());
+    }
+
+    @Override
+    public void unsubscribe(String dataTypeName, Callback<Result> callback) {
+        synchronized (this) {
+            mSubscriptions.remove(dataTypeName);
+        }
+        callback.onResult(new Result());
+    }
+
+    @Override
+    public void unsubscribeAll(Callback<Result> callback) {
+        List<String> dataTypeNames;
+        synchronized (this) {
+            dataTypeNames = new ArrayList<>(mSubscriptions);
+            mSubscriptions.clear();
+        }
+        for (int i = 0; i < dataTypeNames.size(); i++) {
+            callback.onResult(new Result());
+        }
+    }
+
+    @Override
+    public void listSubscriptions(Callback<List<String>> callback) {
+        List<String> dataTypeNames;
+        synchronized (this) {
+            dataTypeNames = new ArrayList<>(mSubscriptions);
+        }
+        callback.onResult(dataTypeNames);
+    }
+
+    /**
+     * Generate the segments for a single day. The day starts asleep and then moves between
+     * random activities until midnight.
+     *
+     * @param day Days since the epoch
+     */
+    List<Segment> generateSegments(long day) {
+        Random random = new Random(mSeed * 31 + day);
+        List<Segment> segments = new ArrayList<>();
+        long dayStart = day * DAY_MILLIS;
+        long dayEnd = dayStart + DAY_MILLIS;
+        long time = dayStart + (6 * 60 + random.nextInt(120)) * MINUTE_MILLIS;
+        segments.add(new Segment(dayStart, time, SLEEP, GENERATED_PACKAGE_NAME));
+        while (time < dayEnd) {
+            long end = Math.min(time + (5 + random.nextInt(85)) * MINUTE_MILLIS, dayEnd);
+            segments.add(new Segment(time, end, nextActivity(random), GENERATED_PACKAGE_NAME));
+            time = end;
+        }
+        return segments;
+    }
+
+    private static int nextActivity(Random random) {
+        int roll = random.nextInt(100);
+        if (roll < 50) {
+            return STILL;
+        } else if (roll < 80) {
+            return WALKING;
+        } else if (roll < 90) {
+            return IN_VEHICLE;
+        } else if (roll < 95) {
+            return RUNNING;
+        }
+        return BIKING;
+    }
+
+    /**
+     * Step deltas for every walking and running segment that overlaps the range, one delta
+     * every five minutes.
+     */
+    private StepDeltaResult collectStepDeltas(long startTime, long endTime) {
+        StepDeltaResult result = new StepDeltaResult();
+        int capacity = 64;
+        result.startTimes = new long[capacity];
+        result.endTimes = new long[capacity];
+        result.steps = new int[capacity];
+        for (long day = firstDay(startTime); day * DAY_MILLIS < endTime; day++) {
+            Random random = new Random(mSeed * 37 + day);
+            for (Segment segment : generateSegments(day)) {
+                int cadence;
+                if (segment.activityType == WALKING) {
+                    cadence = 80;
+                } else if (segment.activityType == RUNNING) {
+                    cadence = 150;
+                } else {
+                    continue;
+                }
+                for (long time = segment.start; time < segment.end; time += DELTA_MILLIS) {
+                    long end = Math.min(time + DELTA_MILLIS, segment.end);
+                    // Draw before the range check so every read sees the same values
+                    int steps = (int) ((cadence + random.nextInt(40)) * (end - time) / MINUTE_MILLIS);
+                    if (end > startTime && time < endTime) {
+                        addDelta(result, time, end, steps);
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            for (InsertedSteps steps : mInsertedSteps) {
+                if (steps.end > startTime && steps.start < endTime) {
+                    addDelta(result, steps.start, steps.end, steps.steps);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void addDelta(StepDeltaResult result, long startTime, long endTime, int steps) {
+        if (result.count == result.startTimes.length) {
+            int size = result.count * 2;
+            result.startTimes = Arrays.copyOf(result.startTimes, size);
+            result.endTimes = Arrays.copyOf(result.endTimes, size);
+            result.steps = Arrays.copyOf(result.steps, size);
+        }
+        result.startTimes[result.count] = startTime;
+        result.endTimes[result.count] = endTime;
+        result.steps[result.count] = steps;
+        result.count++;
+    }
+
+    private static long firstDay(long time) {
+        return time >= 0 ? time / DAY_MILLIS : (time - DAY_MILLIS + 1) / DAY_MILLIS;
+    }
+
+    /**
+     * @return false if the request was interrupted, the status is set on the result
+     */
+    private boolean simulateLatency(long startTime, long endTime, Result result) {
+        mRequestCount.incrementAndGet();
+        long days = Math.max(0, (endTime - startTime) / DAY_MILLIS);
+        long latency = mLatencyMillis + days * mLatencyPerDayMillis;
+        if (latency <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(latency);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.setStatus(STATUS_INTERRUPTED, "Interrupted");
+            return false;
+        }
+    }
+
+    private static class InsertedSteps {
+        final long start;
+        final long end;
+        final int steps;
+
+        InsertedSteps(long start, long end, int steps) {
+            this.start = start;
+            this.end = end;
+            this.steps = steps;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.blackcj.fitdata.database;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.blackcj.fitdata.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Chris Black
+ *
+ * Takes and closes leases and pooled readers from many threads at once. Every lease has to see
+ * an open database until it is closed, and the database has to close once the last lease is.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, application = Application.class)
+public class LeaseCountTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+
+    private CupboardSQLiteOpenHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mHelper = new CupboardSQLiteOpenHelper(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void lastLeaseClosesDatabase() {
+        MultiThreadSQLiteOpenHelper.Lease first = mHelper.acquire();
+        MultiThreadSQLiteOpenHelper.Lease second = mHelper.acquire();
+        SQLiteDatabase db = first.getDatabase();
+        assertEquals(2, mHelper.getLeaseCount());
+
+        first.close();
+        first.close();
+        assertTrue(first.isClosed());
+        assertEquals(1, mHelper.getLeaseCount());
+        assertTrue(db.isOpen());
+
+        second.close();
+        assertEquals(0, mHelper.getLeaseCount());
+        assertFalse(db.isOpen());
+
+        MultiThreadSQLiteOpenHelper.Lease reopened = mHelper.acquire();
+        assertNotSame(db, reopened.getDatabase());
+        assertTrue(reopened.getDatabase().isOpen());
+        reopened.close();
+    }
+
+    @Test
+    public void concurrentLeasesSeeOpenDatabase() throws Exception {
+        // Held for the whole run, the other threads must never close it from under this lease
+        MultiThreadSQLiteOpenHelper.Lease held = mHelper.acquire();
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    MultiThreadSQLiteOpenHelper.Lease lease = mHelper.acquire();
+                    try {
+                        assertTrue(mHelper.getLeaseCount() >= 2);
+                        assertEquals(1, queryOne(lease.getDatabase()));
+                    } finally {
+                        lease.close();
+                    }
+                }
+                return null;
+            }
+        });
+        assertEquals(1, mHelper.getLeaseCount());
+        assertTrue(held.getDatabase().isOpen());
+        held.close();
+        assertEquals(0, mHelper.getLeaseCount());
+        assertFalse(held.getDatabase().isOpen());
+    }
+
+    @Test
+    public void concurrentOpenAndCloseKeepsCount() throws Exception {
+        // No lease is held between rounds, so threads race to close and reopen the database
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    MultiThreadSQLiteOpenHelper.Lease lease = mHelper.acquire();
+                    try {
+                        assertTrue(mHelper.getLeaseCount() >= 1);
+                        assertTrue(lease.getDatabase().isOpen());
+                        assertEquals(1, queryOne(lease.getDatabase()));
+                    } finally {
+                        lease.close();
+                    }
+                }
+                return null;
+            }
+        });
+        assertEquals(0, mHelper.getLeaseCount());
+    }
+
+    @Test
+    public void readerPoolStaysBounded() throws Exception {
+        final SimpleDBHelper pool = SimpleDBHelper.INSTANCE;
+        final AtomicInteger inUse = new AtomicInteger();
+        final AtomicInteger maxInUse = new AtomicInteger();
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < ROUNDS / 4; i++) {
+                    SQLiteDatabase reader = pool.acquireReader(RuntimeEnvironment.application);
+                    try {
+                        int count = inUse.incrementAndGet();
+                        synchronized (maxInUse) {
+                            maxInUse.set(Math.max(maxInUse.get(), count));
+                        }
+                        assertTrue(reader.isOpen());
+                        assertEquals(1, queryOne(reader));
+                    } finally {
+                        inUse.decrementAndGet();
+                        pool.releaseReader(reader);
+                    }
+                }
+                return null;
+            }
+        });
+        assertTrue(maxInUse.get() >= 1);
+        assertTrue(maxInUse.get() <= SimpleDBHelper.READER_POOL_SIZE);
+    }
+
+    /**
+     * Run the task on every thread, started together, and rethrow the first failure.
+     */
+    private static void runConcurrently(final Callable<Void> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    return task.call();
+                }
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static int queryOne(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT 1", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
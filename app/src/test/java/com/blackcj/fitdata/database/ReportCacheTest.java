@@ -0,0 +1,124 @@
+package com.blackcj.fitdata.database;
+
+import com.blackcj.fitdata.Utilities;
+import com.blackcj.fitdata.model.Workout;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created by Chris Black
+ *
+ * Checks which reports {@link ReportCache} keeps across writes.
+ */
+public class ReportCacheTest {
+
+    private static final long HOUR_MILLIS = 1000 * 60 * 60;
+
+    private final long mNow = System.currentTimeMillis();
+
+    @Before
+    public void setUp() {
+        // Reports are kept statically, start every test empty
+        ReportCache.invalidate(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void returnsCopyOfReport() {
+        ArrayList<Workout> report = createReport(3);
+        ReportCache.put(Utilities.TimeFrame.BEGINNING_OF_DAY, mNow - HOUR_MILLIS, mNow, report, ReportCache.getGeneration());
+        report.clear();
+
+        ArrayList<Workout> cached = ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY);
+        assertNotNull(cached);
+        assertEquals(3, cached.size());
+        cached.clear();
+        assertEquals(3, ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY).size());
+        assertNotSame(ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY), ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY));
+        assertNull(ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_WEEK));
+    }
+
+    @Test
+    public void reportBuiltDuringWriteIsNotKept() {
+        int generation = ReportCache.getGeneration();
+        // Any write bumps the generation, even one outside the report
+        ReportCache.invalidate(0, 1);
+        ReportCache.put(Utilities.TimeFrame.BEGINNING_OF_DAY, mNow - HOUR_MILLIS, mNow, createReport(1), generation);
+        assertNull(ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY));
+
+        ReportCache.put(Utilities.TimeFrame.BEGINNING_OF_DAY, mNow - HOUR_MILLIS, mNow, createReport(1), ReportCache.getGeneration());
+        assertNotNull(ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY));
+    }
+
+    @Test
+    public void invalidateDropsOnlyOverlappingReports() {
+        long monthStart = mNow - 60 * 24 * HOUR_MILLIS;
+        long monthEnd = mNow - 30 * 24 * HOUR_MILLIS;
+        long dayStart = mNow - HOUR_MILLIS;
+        putReports(monthStart, monthEnd, dayStart);
+
+        // Before both, and touching the end of last month, which is exclusive
+        ReportCache.invalidate(monthStart - HOUR_MILLIS, monthStart);
+        ReportCache.invalidate(monthEnd, monthEnd + HOUR_MILLIS);
+        assertNotNull(ReportCache.get(Utilities.TimeFrame.LAST_MONTH));
+        assertNotNull(ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY));
+
+        // Inside today only
+        ReportCache.invalidate(dayStart, dayStart + 1);
+        assertNotNull(ReportCache.get(Utilities.TimeFrame.LAST_MONTH));
+        assertNull(ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY));
+
+        // Last day of last month
+        putReports(monthStart, monthEnd, dayStart);
+        ReportCache.invalidate(monthEnd - 1, monthEnd);
+        assertNull(ReportCache.get(Utilities.TimeFrame.LAST_MONTH));
+        assertNotNull(ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY));
+    }
+
+    @Test
+    public void openTimeFramesTakeLaterWrites() {
+        ReportCache.put(Utilities.TimeFrame.BEGINNING_OF_WEEK, mNow - 48 * HOUR_MILLIS, mNow, createReport(2),
+                ReportCache.getGeneration());
+        // Synced after the report was built, it still lands in this week
+        ReportCache.invalidate(mNow + HOUR_MILLIS, mNow + 2 * HOUR_MILLIS);
+        assertNull(ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_WEEK));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        int hits = ReportCache.getHitCount();
+        int misses = ReportCache.getMissCount();
+        ReportCache.get(Utilities.TimeFrame.ALL_TIME);
+        ReportCache.put(Utilities.TimeFrame.ALL_TIME, 0, mNow, createReport(1), ReportCache.getGeneration());
+        ReportCache.get(Utilities.TimeFrame.ALL_TIME);
+        ReportCache.get(Utilities.TimeFrame.ALL_TIME);
+        assertEquals(hits + 2, ReportCache.getHitCount());
+        assertEquals(misses + 1, ReportCache.getMissCount());
+    }
+
+    private void putReports(long monthStart, long monthEnd, long dayStart) {
+        int generation = ReportCache.getGeneration();
+        ReportCache.put(Utilities.TimeFrame.LAST_MONTH, monthStart, monthEnd, createReport(2), generation);
+        ReportCache.put(Utilities.TimeFrame.BEGINNING_OF_DAY, dayStart, mNow, createReport(2), generation);
+        assertNotNull(ReportCache.get(Utilities.TimeFrame.LAST_MONTH));
+        assertNotNull(ReportCache.get(Utilities.TimeFrame.BEGINNING_OF_DAY));
+    }
+
+    private static ArrayList<Workout> createReport(int size) {
+        ArrayList<Workout> report = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Workout workout = new Workout();
+            workout.type = i;
+            workout.duration = 60000 * (i + 1);
+            report.add(workout);
+        }
+        return report;
+    }
+}
@@ -0,0 +1,177 @@
+package com.blackcj.fitdata.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Chris Black
+ *
+ * Compares the year/month/week/day cover of {@link RollupStore} with adding up the days one by
+ * one, in a time zone with daylight saving time.
+ */
+public class RollupStoreTest {
+
+    private static final int[] TYPES = { 7, 8, 1, 0, 79, -2 };
+
+    private TimeZone mDefaultTimeZone;
+    private RollupStore mStore;
+    private List<Row> mRows;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        mStore = new RollupStore();
+        mRows = new ArrayList<>();
+        Random random = new Random(42);
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2014, Calendar.OCTOBER, 20);
+        long end = getTime(2017, Calendar.MARCH, 20);
+        for (long day = cal.getTimeInMillis(); day < end; day = cal.getTimeInMillis()) {
+            // Leave some days empty and give others a few types
+            int types = random.nextInt(4);
+            for (int i = 0; i < types; i++) {
+                Row row = new Row(day, TYPES[random.nextInt(TYPES.length)], random.nextInt(3600000),
+                        random.nextInt(20000), 1 + random.nextInt(5));
+                mRows.add(row);
+                mStore.addDay(row.day, row.type, row.duration, row.steps, row.count);
+            }
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void randomRangesMatchDayByDaySums() {
+        Random random = new Random(7);
+        long first = getTime(2014, Calendar.OCTOBER, 1);
+        long last = getTime(2017, Calendar.APRIL, 1);
+        for (int i = 0; i < 2000; i++) {
+            long a = first + (long) (random.nextDouble() * (last - first));
+            long b = first + (long) (random.nextDouble() * (last - first));
+            assertQuery(Math.min(a, b), Math.max(a, b));
+        }
+    }
+
+    @Test
+    public void calendarRangesMatchDayByDaySums() {
+        // Whole years, months and weeks, and ranges that start or end on daylight saving days
+        assertQuery(getTime(2015, Calendar.JANUARY, 1), getTime(2016, Calendar.JANUARY, 1));
+        assertQuery(getTime(2015, Calendar.JANUARY, 1), getTime(2017, Calendar.JANUARY, 1));
+        assertQuery(getTime(2015, Calendar.MARCH, 1), getTime(2015, Calendar.APRIL, 1));
+        assertQuery(getTime(2015, Calendar.MARCH, 8), getTime(2015, Calendar.NOVEMBER, 1));
+        assertQuery(getTime(2015, Calendar.MARCH, 8) + 3 * 3600000, getTime(2015, Calendar.NOVEMBER, 1) + 1);
+        assertQuery(getTime(2015, Calendar.DECEMBER, 28), getTime(2016, Calendar.JANUARY, 4));
+        assertQuery(getTime(2014, Calendar.DECEMBER, 31), getTime(2016, Calendar.MARCH, 2));
+    }
+
+    @Test
+    public void wholeYearReadsOneBucket() {
+        RollupStore.Totals totals = new RollupStore.Totals();
+        assertEquals(1, mStore.query(getTime(2015, Calendar.JANUARY, 1), getTime(2016, Calendar.JANUARY, 1), totals));
+        // A year with a month on either side
+        assertEquals(3, mStore.query(getTime(2014, Calendar.DECEMBER, 1), getTime(2016, Calendar.FEBRUARY, 1), totals));
+    }
+
+    @Test
+    public void rangesWidenToWholeLocalDays() {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2016, Calendar.MARCH, 13);
+        long springForward = cal.getTimeInMillis();
+        cal.add(Calendar.DAY_OF_MONTH, 1);
+        long nextDay = cal.getTimeInMillis();
+        // Only 23 hours long
+        assertEquals(23 * 3600000L, nextDay - springForward);
+
+        RollupStore store = new RollupStore();
+        store.addDay(springForward, 7, 1000, 10, 1);
+        store.addDay(nextDay, 7, 2000, 20, 1);
+        RollupStore.Totals totals = new RollupStore.Totals();
+
+        // Part of a day counts the whole day
+        store.query(springForward + 3600000, springForward + 2 * 3600000, totals);
+        assertEquals(1000, totals.durations[totals.indexOf(7)]);
+        // Ending part way through the next day includes all of it
+        store.query(springForward + 12 * 3600000, nextDay + 1, totals);
+        assertEquals(3000, totals.durations[totals.indexOf(7)]);
+        assertEquals(springForward, totals.firstDays[totals.indexOf(7)]);
+        // Ending at midnight leaves the next day out
+        store.query(springForward, nextDay, totals);
+        assertEquals(1000, totals.durations[totals.indexOf(7)]);
+        // An empty range at midnight reads nothing
+        assertEquals(0, store.query(nextDay, nextDay, totals));
+        assertEquals(0, totals.size);
+    }
+
+    private void assertQuery(long startTime, long endTime) {
+        RollupStore.Totals totals = new RollupStore.Totals();
+        mStore.query(startTime, endTime, totals);
+        RollupStore.Totals expected = sumDays(startTime, endTime);
+        String range = startTime + " - " + endTime;
+        assertEquals(range, expected.size, totals.size);
+        for (int i = 0; i < expected.size; i++) {
+            int index = totals.indexOf(expected.types[i]);
+            assertTrue(range, index >= 0);
+            assertEquals(range, expected.durations[i], totals.durations[index]);
+            assertEquals(range, expected.steps[i], totals.steps[index]);
+            assertEquals(range, expected.counts[i], totals.counts[index]);
+            assertEquals(range, expected.firstDays[i], totals.firstDays[index]);
+        }
+    }
+
+    /**
+     * Add up every row whose day overlaps the range, found without the store's calendar math.
+     */
+    private RollupStore.Totals sumDays(long startTime, long endTime) {
+        RollupStore.Totals totals = new RollupStore.Totals();
+        for (Row row : mRows) {
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(row.day);
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+            long dayEnd = cal.getTimeInMillis();
+            if (row.day < endTime && dayEnd > startTime) {
+                totals.add(row.type, row.duration, row.steps, row.count, row.day);
+            }
+        }
+        return totals;
+    }
+
+    private static long getTime(int year, int month, int day) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day);
+        return cal.getTimeInMillis();
+    }
+
+    private static class Row {
+        final long day;
+        final int type;
+        final long duration;
+        final long steps;
+        final int count;
+
+        Row(long day, int type, long duration, long steps, int count) {
+            this.day = day;
+            this.type = type;
+            this.duration = duration;
+            this.steps = steps;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.blackcj.fitdata.database;
+
+import android.app.Application;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.blackcj.fitdata.BuildConfig;
+import com.blackcj.fitdata.Utilities;
+import com.blackcj.fitdata.model.SummaryData;
+import com.blackcj.fitdata.model.WorkoutTypes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by Chris Black
+ *
+ * Changes workouts in the database and checks that the summary only picks the change up for the
+ * days that were invalidated, and then matches adding up the rows again.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, application = Application.class)
+public class RunningSummaryTest {
+
+    private static final int[] TYPES = { -2, 0, 3, 7, 8, 72 };
+    private static final int[] SUMMARIES = { -2, -1, 0, 7, 8 };
+    private static final int WALKING = WorkoutTypes.WALKING.getValue();
+
+    private CupboardSQLiteOpenHelper mHelper;
+    private MultiThreadSQLiteOpenHelper.Lease mLease;
+    private SQLiteDatabase mDb;
+    private final List<Row> mRows = new ArrayList<>();
+    private final Random mRandom = new Random(13);
+    private long mToday;
+
+    @Before
+    public void setUp() {
+        mHelper = new CupboardSQLiteOpenHelper(RuntimeEnvironment.application);
+        mLease = mHelper.acquire();
+        mDb = mLease.getDatabase();
+        mToday = DailyRollup.getDayStart(System.currentTimeMillis());
+        // Forty days back, a little past the trailing window
+        for (int daysAgo = 0; daysAgo <= 40; daysAgo++) {
+            for (int i = mRandom.nextInt(4); i > 0; i--) {
+                insert(randomRow(daysAgo));
+            }
+        }
+        // Anything summed by an earlier test is read again
+        RunningSummary.INSTANCE.invalidate(0, Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.delete("Workout", null, null);
+        mLease.close();
+    }
+
+    @Test
+    public void summaryMatchesRows() {
+        assertSummaries(false);
+        assertSummaries(true);
+    }
+
+    @Test
+    public void onlyInvalidatedDaysAreReadAgain() {
+        assertSummaries(false);
+        long yesterday = getDay(1);
+        Row row = new Row(yesterday + 3600000, WALKING, 45 * 60000, 3000);
+        insert(row);
+
+        // Not marked yet, the running sums don't query
+        SummaryData summary = getSummary(false, WALKING);
+        mRows.remove(row);
+        assertSummary(WALKING, summary);
+        mRows.add(row);
+
+        // A range that misses the day leaves it out as well
+        RunningSummary.INSTANCE.invalidate(getDay(5), getDay(3));
+        summary = getSummary(false, WALKING);
+        mRows.remove(row);
+        assertSummary(WALKING, summary);
+        mRows.add(row);
+
+        // Marking part of the day swaps the whole day
+        RunningSummary.INSTANCE.invalidate(row.start, row.start + 1);
+        assertSummaries(false);
+    }
+
+    @Test
+    public void dirtyDaysSwapOutOldTotals() {
+        assertSummaries(false);
+        for (int round = 0; round < 20; round++) {
+            // Delete, change and add rows on a few days, then mark just those days
+            long changedStart = Long.MAX_VALUE;
+            long changedEnd = Long.MIN_VALUE;
+            for (int change = 0; change < 3; change++) {
+                int daysAgo = mRandom.nextInt(41);
+                long day = getDay(daysAgo);
+                Iterator<Row> iterator = mRows.iterator();
+                while (iterator.hasNext()) {
+                    Row row = iterator.next();
+                    if (DailyRollup.getDayStart(row.start) == day && mRandom.nextBoolean()) {
+                        iterator.remove();
+                        mDb.delete("Workout", "start = ? AND type = ?", new String[] { "" + row.start, "" + row.type });
+                    }
+                }
+                insert(randomRow(daysAgo));
+                changedStart = Math.min(changedStart, day);
+                changedEnd = Math.max(changedEnd, day + 1);
+            }
+            RunningSummary.INSTANCE.invalidate(changedStart, changedEnd);
+            assertSummaries(round % 2 == 0);
+        }
+    }
+
+    @Test
+    public void invalidatingAfterTodayReadsToday() {
+        assertSummaries(false);
+        Row row = new Row(mToday + 60000, WALKING, 20 * 60000, 900);
+        insert(row);
+        // Open ended changes like a full re-sync
+        RunningSummary.INSTANCE.invalidate(getDay(2), Long.MAX_VALUE);
+        assertSummaries(false);
+    }
+
+    private void assertSummaries(boolean fromWorkouts) {
+        for (int type : SUMMARIES) {
+            assertSummary(type, getSummary(fromWorkouts, type));
+        }
+    }
+
+    private SummaryData getSummary(boolean fromWorkouts, int type) {
+        SummaryData summary = new SummaryData();
+        RunningSummary.INSTANCE.getSummary(mDb, fromWorkouts, type, summary);
+        return summary;
+    }
+
+    /**
+     * Compare with the rows added up for the summary's days.
+     */
+    private void assertSummary(int type, SummaryData summary) {
+        long weekStart = DailyRollup.getDayStart(Utilities.getTimeFrameStart(Utilities.TimeFrame.BEGINNING_OF_WEEK));
+        long trailingStart = getDay(RunningSummary.TRAILING_DAYS);
+        long[] today = new long[2];
+        long[] week = new long[2];
+        long[] trailing = new long[2];
+        for (Row row : mRows) {
+            if (row.type == WorkoutTypes.STILL.getValue() || (row.stepCount == 0 && row.duration < 60000)) {
+                continue;
+            }
+            long day = DailyRollup.getDayStart(row.start);
+            if (day == mToday) {
+                add(today, type, row);
+            }
+            if (day >= weekStart && day <= mToday) {
+                add(week, type, row);
+            }
+            if (day >= trailingStart && day < mToday) {
+                add(trailing, type, row);
+            }
+        }
+        long trailingValue = getValue(trailing, type);
+        assertEquals(type, summary.activityType);
+        assertEquals(getValue(today, type), summary.todayData);
+        assertEquals(getValue(week, type), summary.weekData);
+        assertEquals(trailingValue / RunningSummary.TRAILING_DAYS, summary.averageDailyData);
+        assertEquals(trailingValue * 7 / RunningSummary.TRAILING_DAYS, summary.averageWeeklyData);
+    }
+
+    private static void add(long[] sums, int type, Row row) {
+        if (type == WorkoutTypes.STEP_COUNT.getValue()) {
+            if (row.type == type) {
+                sums[1] += row.stepCount;
+            }
+        } else if (type == WorkoutTypes.TIME.getValue() ? WorkoutTypes.isActiveWorkout(row.type) : row.type == type) {
+            sums[0] += row.duration;
+        }
+    }
+
+    private static long getValue(long[] sums, int type) {
+        return type == WorkoutTypes.STEP_COUNT.getValue() ? sums[1] : sums[0] / 1000 / 60;
+    }
+
+    private Row randomRow(int daysAgo) {
+        // Starts are unique so a row can be deleted by start and type
+        long start = getDay(daysAgo) + mRandom.nextInt(24 * 60) * 60000L + mRandom.nextInt(60000);
+        int type = TYPES[mRandom.nextInt(TYPES.length)];
+        long duration = mRandom.nextBoolean() ? mRandom.nextInt(60000) : mRandom.nextInt(2 * 3600000);
+        int stepCount = mRandom.nextInt(3) == 0 ? 0 : mRandom.nextInt(8000);
+        return new Row(start, type, duration, stepCount);
+    }
+
+    private void insert(Row row) {
+        mRows.add(row);
+        mDb.execSQL("INSERT INTO Workout (start, type, duration, stepCount, packageName) VALUES (?, ?, ?, ?, '')",
+                new Object[] { row.start, row.type, row.duration, row.stepCount });
+    }
+
+    private long getDay(int daysAgo) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(mToday);
+        cal.add(Calendar.DAY_OF_MONTH, -daysAgo);
+        return cal.getTimeInMillis();
+    }
+
+    private static class Row {
+        final long start;
+        final int type;
+        final long duration;
+        final int stepCount;
+
+        Row(long start, int type, long duration, int stepCount) {
+            this.start = start;
+            this.type = type;
+            this.duration = duration;
+            this.stepCount = stepCount;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.blackcj.fitdata.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Chris Black
+ *
+ * Per day and bulk step backfill across daylight saving changes in New York, against a fake that
+ * buckets like the HistoryApi: fixed 24 hour buckets from the start of the request, with steps
+ * in every hour of the day so a bucket that drifts by an hour moves steps to the wrong day.
+ */
+public class StepBackfillTest {
+
+    private static final long HOUR_MILLIS = 1000 * 60 * 60;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void splitIntoDaysFollowsCalendarDays() {
+        // 2016-03-13 is 23 hours long
+        long[] boundaries = StepBackfill.splitIntoDays(getShardStart(2016, Calendar.MARCH, 11),
+                getShardStart(2016, Calendar.MARCH, 15));
+        assertEquals(5, boundaries.length);
+        assertEquals(StepBackfill.DAY_MILLIS, boundaries[1] - boundaries[0]);
+        assertEquals(StepBackfill.DAY_MILLIS, boundaries[2] - boundaries[1]);
+        assertEquals(StepBackfill.DAY_MILLIS - HOUR_MILLIS, boundaries[3] - boundaries[2]);
+        assertEquals(StepBackfill.DAY_MILLIS, boundaries[4] - boundaries[3]);
+    }
+
+    @Test
+    public void demultiplexMatchesBucketMidpoints() {
+        long[] boundaries = new long[] {0, 100, 200, 300};
+        long[] bucketTimes = new long[] {-10, 0, 50, 150, 199, 250, 300};
+        int[] bucketSteps = new int[] {1, 2, 4, 8, 16, 32, 64};
+        assertArrayEquals(new int[] {6, 24, 32}, StepBackfill.demultiplex(boundaries, bucketTimes, bucketSteps));
+    }
+
+    @Test
+    public void runsSplitAroundDaylightSavingDays() {
+        long[] boundaries = StepBackfill.splitIntoDays(getShardStart(2016, Calendar.MARCH, 10),
+                getShardStart(2016, Calendar.MARCH, 16) + 5 * HOUR_MILLIS);
+        // Mar 10, 11, 12 | Mar 13 | Mar 14, 15 and the partial Mar 16
+        assertEquals(3, StepBackfill.getRunEnd(boundaries, 0));
+        assertEquals(4, StepBackfill.getRunEnd(boundaries, 3));
+        assertEquals(7, StepBackfill.getRunEnd(boundaries, 4));
+    }
+
+    @Test
+    public void bulkMatchesPerDayAcrossSpringForward() {
+        assertBulkMatchesPerDay(getShardStart(2016, Calendar.MARCH, 1), getShardStart(2016, Calendar.MARCH, 31), 3);
+    }
+
+    @Test
+    public void bulkMatchesPerDayAcrossFallBack() {
+        // Ends part way through a day like a sync that runs up to now
+        assertBulkMatchesPerDay(getShardStart(2016, Calendar.OCTOBER, 20),
+                getShardStart(2016, Calendar.NOVEMBER, 20) + 13 * HOUR_MILLIS, 3);
+    }
+
+    @Test
+    public void bulkMatchesPerDayOverAYear() {
+        // Two daylight saving changes, each read on its own between three runs
+        assertBulkMatchesPerDay(getShardStart(2015, Calendar.DECEMBER, 1), getShardStart(2016, Calendar.DECEMBER, 1), 5);
+    }
+
+    @Test
+    public void bulkStopsAtFailedRequest() {
+        long[] boundaries = StepBackfill.splitIntoDays(getShardStart(2016, Calendar.MARCH, 10),
+                getShardStart(2016, Calendar.MARCH, 16));
+        final int[] requests = new int[1];
+        RecordingWriter writer = new RecordingWriter();
+        StepBackfill.Result result = new StepBackfill(2).runBulk(boundaries, new StepBackfill.BulkStepReader() {
+            @Override
+            public int[] readStepBuckets(long[] runBoundaries) {
+                // The daylight saving day is the second request
+                if (++requests[0] == 2) {
+                    return null;
+                }
+                return readBuckets(runBoundaries);
+            }
+        }, writer);
+        assertFalse(result.complete);
+        assertEquals(3, result.shardsWritten);
+        assertEquals(boundaries[3], result.resumeFrom);
+        assertEquals(3, writer.steps.size());
+    }
+
+    private void assertBulkMatchesPerDay(long firstDayStart, long endTime, int expectedRequests) {
+        long[] boundaries = StepBackfill.splitIntoDays(firstDayStart, endTime);
+        StepBackfill backfill = new StepBackfill(4);
+
+        RecordingWriter perDay = new RecordingWriter();
+        StepBackfill.Result perDayResult = backfill.run(boundaries, new StepBackfill.StepReader() {
+            @Override
+            public int readSteps(long startTime, long endTime) {
+                return readDailySteps(startTime, endTime).getTotalSteps();
+            }
+        }, perDay);
+
+        final int[] requests = new int[1];
+        RecordingWriter bulk = new RecordingWriter();
+        StepBackfill.Result bulkResult = backfill.runBulk(boundaries, new StepBackfill.BulkStepReader() {
+            @Override
+            public int[] readStepBuckets(long[] runBoundaries) {
+                requests[0]++;
+                return readBuckets(runBoundaries);
+            }
+        }, bulk);
+
+        assertTrue(perDayResult.complete);
+        assertTrue(bulkResult.complete);
+        assertEquals(boundaries.length - 1, bulkResult.shardsWritten);
+        assertEquals(endTime, bulkResult.resumeFrom);
+        assertEquals(perDayResult.totalSteps, bulkResult.totalSteps);
+        assertEquals(perDay.starts, bulk.starts);
+        assertEquals(perDay.steps, bulk.steps);
+        assertEquals(expectedRequests, requests[0]);
+    }
+
+    @Test
+    public void singleRequestDriftsAcrossDaylightSaving() {
+        // What reading the whole range with one request did before it was split into runs
+        long[] boundaries = StepBackfill.splitIntoDays(getShardStart(2016, Calendar.MARCH, 10),
+                getShardStart(2016, Calendar.MARCH, 16));
+        int[] expected = new int[boundaries.length - 1];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = readDailySteps(boundaries[i], boundaries[i + 1]).getTotalSteps();
+        }
+        int[] drifted = readBuckets(boundaries);
+        assertEquals(expected[2], drifted[2]);
+        assertFalse(expected[4] == drifted[4]);
+    }
+
+    /**
+     * Read a run the way the sync does, one day bucketed request split back into shards.
+     */
+    private static int[] readBuckets(long[] boundaries) {
+        DayBuckets result = readDailySteps(boundaries[0], boundaries[boundaries.length - 1]);
+        return StepBackfill.demultiplex(boundaries, result.bucketTimes, result.bucketSteps);
+    }
+
+    /**
+     * Day buckets the way the HistoryApi returns them, 24 hours each from the start of the
+     * request and the last one cut off at the end.
+     */
+    private static DayBuckets readDailySteps(long startTime, long endTime) {
+        DayBuckets result = new DayBuckets();
+        int bucketCount = (int) ((endTime - startTime + StepBackfill.DAY_MILLIS - 1) / StepBackfill.DAY_MILLIS);
+        result.bucketTimes = new long[bucketCount];
+        result.bucketSteps = new int[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            long bucketStart = startTime + i * StepBackfill.DAY_MILLIS;
+            long bucketEnd = Math.min(bucketStart + StepBackfill.DAY_MILLIS, endTime);
+            result.bucketTimes[i] = (bucketStart + bucketEnd) / 2;
+            // A step delta at the top of every hour
+            for (long hour = (bucketStart + HOUR_MILLIS - 1) / HOUR_MILLIS; hour * HOUR_MILLIS < bucketEnd; hour++) {
+                result.bucketSteps[i] += (int) (hour % 97) + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return One minute past local midnight, where the sync starts its day shards
+     */
+    private static long getShardStart(int year, int month, int day) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day, 0, 1);
+        return cal.getTimeInMillis();
+    }
+
+    private static class DayBuckets {
+        long[] bucketTimes;
+        int[] bucketSteps;
+
+        int getTotalSteps() {
+            int total = 0;
+            for (int steps : bucketSteps) {
+                total += steps;
+            }
+            return total;
+        }
+    }
+
+    private static class RecordingWriter implements StepBackfill.StepWriter {
+        final List<Long> starts = new ArrayList<>();
+        final List<Integer> steps = new ArrayList<>();
+
+        @Override
+        public boolean writeSteps(long startTime, long endTime, int stepCount) {
+            starts.add(startTime);
+            steps.add(stepCount);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.blackcj.fitdata.database;
+
+import com.blackcj.fitdata.model.SyncChunk;
+import com.blackcj.fitdata.model.Workout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Chris Black
+ *
+ * Runs the step backfill and the activity pipeline the way the sync does, with the readers
+ * DataManager uses, against the in memory {@link FakeFitnessSource}. The activity ranges come
+ * from {@link SyncPlanner}, the same as in the app.
+ */
+public class SyncHarnessTest {
+
+    private static final long DAY_MILLIS = FakeFitnessSource.DAY_MILLIS;
+    private static final long HOUR_MILLIS = 1000 * 60 * 60;
+    private static final int STILL = 3;
+    private static final int RUNNING = 8;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void stepBackfillReadsEveryStep() {
+        FakeFitnessSource source = new FakeFitnessSource(7);
+        long firstDayStart = getTime(2015, Calendar.JANUARY, 1);
+        long endTime = getTime(2016, Calendar.JANUARY, 1) + 15 * HOUR_MILLIS;
+        long[] boundaries = StepBackfill.splitIntoDays(firstDayStart, endTime);
+
+        StepTotals bulk = new StepTotals();
+        StepBackfill.Result bulkResult = new StepBackfill().runBulk(boundaries, new FitnessStepReader(source), bulk);
+        StepTotals perDay = new StepTotals();
+        StepBackfill.Result perDayResult = new StepBackfill().run(boundaries, new FitnessStepReader(source), perDay);
+
+        assertTrue(bulkResult.complete);
+        assertTrue(perDayResult.complete);
+        assertEquals(boundaries.length - 1, bulkResult.shardsWritten);
+        assertEquals(perDay.steps, bulk.steps);
+        assertEquals(countSteps(source, firstDayStart, endTime), bulkResult.totalSteps);
+    }
+
+    @Test
+    public void activitySyncStoresEverySegmentOnce() {
+        FakeFitnessSource source = new FakeFitnessSource(11);
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        long firstDay = getTime(2015, Calendar.JUNE, 15);
+        WorkoutStore store = sync(source, firstDay, now, null);
+
+        Map<Long, Integer> expected = new HashMap<>();
+        for (long day = firstDay / DAY_MILLIS; day * DAY_MILLIS < now; day++) {
+            for (FitnessSource.Segment segment : source.generateSegments(day)) {
+                if (segment.end > firstDay && segment.start < now) {
+                    expected.put(segment.start, segment.activityType);
+                }
+            }
+        }
+        assertEquals(expected.size(), store.workouts.size());
+        for (Workout workout : store.workouts.values()) {
+            assertEquals(expected.get(workout.start), Integer.valueOf(workout.type));
+            if (workout.type == STILL) {
+                assertEquals(0, workout.stepCount);
+            }
+        }
+        assertEquals(Long.MAX_VALUE, store.failedFrom);
+    }
+
+    @Test
+    public void activitySyncSkipsJournaledWindows() {
+        FakeFitnessSource source = new FakeFitnessSource(11);
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        long firstDay = getTime(2015, Calendar.JUNE, 15);
+        final long skipStart = getTime(2015, Calendar.SEPTEMBER, 1);
+        final long skipEnd = getTime(2015, Calendar.DECEMBER, 1);
+        WorkoutStore store = sync(source, firstDay, now, new ActivityReader.Journal() {
+            @Override
+            public List<SyncChunk> getCompleted(long start, long end) {
+                List<SyncChunk> chunks = new ArrayList<>();
+                chunks.add(new SyncChunk("activity", skipStart, skipEnd, 0, 0, 0));
+                return chunks;
+            }
+        });
+        boolean before = false;
+        for (Workout workout : store.workouts.values()) {
+            // Segments overlapping the edges of the skipped window are read with their neighbours
+            assertFalse(workout.start >= skipStart + DAY_MILLIS && workout.start < skipEnd - DAY_MILLIS);
+            before |= workout.start < skipStart;
+        }
+        assertTrue(before);
+    }
+
+    @Test
+    public void activitySyncReportsFailedWindows() {
+        final long failedTime = getTime(2016, Calendar.FEBRUARY, 10);
+        FakeFitnessSource source = new FakeFitnessSource(11) {
+            @Override
+            public SegmentResult readActivitySegments(long startTime, long endTime, boolean serverQueries, long timeoutMinutes) {
+                if (startTime <= failedTime && failedTime < endTime) {
+                    SegmentResult result = new SegmentResult();
+                    result.setStatus(STATUS_ERROR, "Timed out");
+                    return result;
+                }
+                return super.readActivitySegments(startTime, endTime, serverQueries, timeoutMinutes);
+            }
+        };
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        WorkoutStore store = sync(source, getTime(2015, Calendar.JUNE, 15), now, null);
+        // Shrunk down to a single day before giving up on it
+        assertTrue(store.failedFrom <= failedTime);
+        assertTrue(store.failedFrom > failedTime - DAY_MILLIS);
+        assertTrue(store.workouts.size() > 0);
+    }
+
+    @Test
+    public void nextSyncRereadsTheOverlap() {
+        ReclassifyingSource source = new ReclassifyingSource(11);
+        WorkoutStore store = new WorkoutStore();
+        store.journal = new MemoryJournal();
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        // The last sync left the watermark inside today, so the whole window is chunked
+        sync(store, source, now - 3 * HOUR_MILLIS, now, store.journal);
+        long watermark = SyncPlanner.getNextActivityWatermark(now, store.failedFrom);
+        store.journal.prune(watermark);
+
+        // Segments that were still open when the first sync ran change before the next one
+        source.reclassify(watermark, now, RUNNING);
+        sync(store, source, watermark, now + HOUR_MILLIS, store.journal);
+
+        int reclassified = 0;
+        for (Workout workout : store.workouts.values()) {
+            if (workout.start >= watermark && workout.start < now) {
+                assertEquals(RUNNING, workout.type);
+                reclassified++;
+            }
+        }
+        assertTrue(reclassified > 0);
+        // Only windows the next sync won't read again are journaled
+        for (SyncChunk chunk : store.journal.chunks) {
+            assertTrue(chunk.rangeEnd <= now + HOUR_MILLIS - SyncPlanner.SYNC_OVERLAP);
+        }
+    }
+
+    /**
+     * Plan the ranges like the sync and run the pipeline into an in memory store.
+     */
+    private static WorkoutStore sync(FitnessSource source, long startTime, long now, ActivityReader.Journal journal) {
+        WorkoutStore store = new WorkoutStore();
+        sync(store, source, startTime, now, journal);
+        return store;
+    }
+
+    private static void sync(WorkoutStore store, FitnessSource source, long startTime, long now, ActivityReader.Journal journal) {
+        List<ActivityRange> ranges = SyncPlanner.getActivityRanges(startTime, now, 5);
+        ActivityReader reader = new ActivityReader(source, ranges, true, 5, journal);
+        SyncPipeline.Stats stats = new SyncPipeline<ActivityRange, ActivityRange>().run(reader, reader, store);
+        assertEquals(null, stats.error);
+        store.failedFrom = reader.getFailedFrom();
+    }
+
+    private static long countSteps(FitnessSource source, long startTime, long endTime) {
+        FitnessSource.StepDeltaResult deltas = source.readStepDeltas(startTime, endTime);
+        long total = 0;
+        for (int i = 0; i < deltas.count; i++) {
+            if (deltas.startTimes[i] >= startTime && deltas.startTimes[i] < endTime) {
+                total += deltas.steps[i];
+            }
+        }
+        return total;
+    }
+
+    private static long getTime(int year, int month, int day) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day);
+        return cal.getTimeInMillis();
+    }
+
+    private static class StepTotals implements StepBackfill.StepWriter {
+        final List<Integer> steps = new ArrayList<>();
+
+        @Override
+        public boolean writeSteps(long startTime, long endTime, int stepCount) {
+            steps.add(stepCount);
+            return true;
+        }
+    }
+
+    /**
+     * Keeps one workout per start time, like the upsert in {@link WorkoutBatchWriter}. Each range
+     * that was read replaces the workouts stored in its window and journaled ranges are recorded,
+     * the same as the activity writer in DataManager.
+     */
+    private static class WorkoutStore implements SyncPipeline.Writer<ActivityRange> {
+        final Map<Long, Workout> workouts = new HashMap<>();
+        MemoryJournal journal;
+        long failedFrom;
+
+        @Override
+        public boolean write(ActivityRange range) {
+            if (range.segmentResult.isSuccess()) {
+                Iterator<Long> starts = workouts.keySet().iterator();
+                while (starts.hasNext()) {
+                    long start = starts.next();
+                    if (start >= range.start && start < range.end) {
+                        starts.remove();
+                    }
+                }
+            }
+            for (Workout workout : range.workouts) {
+                if (workout.duration > 0) {
+                    workouts.put(workout.start, workout);
+                }
+            }
+            if (journal != null && range.journaled && !range.failed) {
+                journal.chunks.add(new SyncChunk("activity", range.start, range.end, range.workouts.size(), range.readMillis, 0));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Sync journal kept in a list, pruned the way DataManager prunes {@link SyncJournal}.
+     */
+    private static class MemoryJournal implements ActivityReader.Journal {
+        final List<SyncChunk> chunks = new ArrayList<>();
+
+        @Override
+        public List<SyncChunk> getCompleted(long start, long end) {
+            List<SyncChunk> completed = new ArrayList<>();
+            for (SyncChunk chunk : chunks) {
+                if (chunk.rangeEnd > start && chunk.rangeStart < end) {
+                    completed.add(chunk);
+                }
+            }
+            return completed;
+        }
+
+        void prune(long watermark) {
+            Iterator<SyncChunk> iterator = chunks.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().rangeEnd <= watermark) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Source where Fit reclassifies the segments starting in a window, like it does once an
+     * activity that was still going on has been recognised.
+     */
+    private static class ReclassifyingSource extends FakeFitnessSource {
+        private volatile long mStart = 0;
+        private volatile long mEnd = 0;
+        private volatile int mActivityType;
+
+        ReclassifyingSource(long seed) {
+            super(seed);
+        }
+
+        void reclassify(long start, long end, int activityType) {
+            mActivityType = activityType;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public SegmentResult readActivitySegments(long startTime, long endTime, boolean serverQueries, long timeoutMinutes) {
+            SegmentResult result = super.readActivitySegments(startTime, endTime, serverQueries, timeoutMinutes);
+            for (int i = 0; i < result.segments.size(); i++) {
+                Segment segment = result.segments.get(i);
+                if (segment.start >= mStart && segment.start < mEnd) {
+                    result.segments.set(i, new Segment(segment.start, segment.end, mActivityType, segment.packageName));
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.blackcj.fitdata.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Chris Black
+ *
+ * Checks how {@link SyncPlanner} splits the activity window of a sync and where it puts the
+ * next watermark.
+ */
+public class SyncPlannerTest {
+
+    private static final long HOUR_MILLIS = 1000 * 60 * 60;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private TimeZone mDefaultTimeZone;
+    private Locale mDefaultLocale;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        mDefaultLocale = Locale.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        Locale.setDefault(Locale.US);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    @Test
+    public void fullReadStartsNinetyDaysBack() {
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        assertEquals(getTime(2016, Calendar.MARCH, 17) + 13 * HOUR_MILLIS, SyncPlanner.getActivityStart(0, now));
+        long watermark = now - 5 * DAY_MILLIS;
+        assertEquals(watermark, SyncPlanner.getActivityStart(watermark, now));
+    }
+
+    @Test
+    public void longWindowIsSplitIntoTodayWeekAndRest() {
+        // Wednesday, the week started on Sunday the 12th
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        long startTime = getTime(2016, Calendar.MAY, 1);
+        List<ActivityRange> ranges = SyncPlanner.getActivityRanges(startTime, now, 5);
+
+        assertEquals(3, ranges.size());
+        assertRange(ranges.get(0), "today", getTime(2016, Calendar.JUNE, 15), now, false);
+        assertRange(ranges.get(1), "week", getTime(2016, Calendar.JUNE, 12), getTime(2016, Calendar.JUNE, 15), false);
+        assertRange(ranges.get(2), "rest", startTime, getTime(2016, Calendar.JUNE, 12), true);
+        assertEquals(5, ranges.get(2).timeoutMinutes);
+    }
+
+    @Test
+    public void windowStartingThisWeekHasNoWeekRange() {
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        long startTime = getTime(2016, Calendar.JUNE, 13) + 20 * HOUR_MILLIS;
+        List<ActivityRange> ranges = SyncPlanner.getActivityRanges(startTime, now, 5);
+
+        assertEquals(2, ranges.size());
+        assertRange(ranges.get(0), "today", getTime(2016, Calendar.JUNE, 15), now, false);
+        assertRange(ranges.get(1), "rest", startTime, getTime(2016, Calendar.JUNE, 15), true);
+    }
+
+    @Test
+    public void windowStartingTodayIsReadAsRest() {
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        long startTime = now - SyncPlanner.SYNC_OVERLAP;
+        List<ActivityRange> ranges = SyncPlanner.getActivityRanges(startTime, now, 5);
+
+        assertEquals(1, ranges.size());
+        assertRange(ranges.get(0), "rest", startTime, now, true);
+        // The next sync reads the overlap again, it must not be skipped as journaled
+        assertEquals(now - SyncPlanner.SYNC_OVERLAP, ranges.get(0).journalUntil);
+    }
+
+    @Test
+    public void weekStartingTodayIsOnlyReadOnce() {
+        // Sunday
+        long now = getTime(2016, Calendar.JUNE, 12) + 13 * HOUR_MILLIS;
+        long startTime = getTime(2016, Calendar.JUNE, 1);
+        List<ActivityRange> ranges = SyncPlanner.getActivityRanges(startTime, now, 5);
+
+        assertEquals(2, ranges.size());
+        assertRange(ranges.get(0), "today", getTime(2016, Calendar.JUNE, 12), now, false);
+        assertRange(ranges.get(1), "rest", startTime, getTime(2016, Calendar.JUNE, 12), true);
+    }
+
+    @Test
+    public void emptyWindowHasNoRanges() {
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        assertTrue(SyncPlanner.getActivityRanges(now, now, 5).isEmpty());
+    }
+
+    @Test
+    public void rangesAreContiguous() {
+        long now = getTime(2016, Calendar.MARCH, 14) + 1 * HOUR_MILLIS;
+        for (long startTime = now - 40 * DAY_MILLIS; startTime <= now; startTime += 7 * HOUR_MILLIS) {
+            List<ActivityRange> ranges = SyncPlanner.getActivityRanges(startTime, now, 5);
+            long end = now;
+            for (ActivityRange range : ranges) {
+                assertEquals(end, range.end);
+                assertTrue(range.start < range.end);
+                end = range.start;
+            }
+            assertEquals(startTime, end);
+        }
+    }
+
+    @Test
+    public void nextWatermarkRereadsTheOverlapAndFailures() {
+        long now = getTime(2016, Calendar.JUNE, 15) + 13 * HOUR_MILLIS;
+        assertEquals(now - SyncPlanner.SYNC_OVERLAP, SyncPlanner.getNextActivityWatermark(now, Long.MAX_VALUE));
+        long failedFrom = now - 10 * DAY_MILLIS;
+        assertEquals(failedFrom, SyncPlanner.getNextActivityWatermark(now, failedFrom));
+    }
+
+    private static void assertRange(ActivityRange range, String name, long start, long end, boolean chunked) {
+        assertEquals(name, range.name);
+        assertEquals(start, range.start);
+        assertEquals(end, range.end);
+        assertEquals(chunked, range.chunked);
+    }
+
+    private static long getTime(int year, int month, int day) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day);
+        return cal.getTimeInMillis();
+    }
+}
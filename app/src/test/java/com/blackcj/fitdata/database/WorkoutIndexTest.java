@@ -0,0 +1,94 @@
+package com.blackcj.fitdata.database;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.blackcj.fitdata.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Chris Black
+ *
+ * Checks with EXPLAIN QUERY PLAN that the report, range and sync queries search the Workout
+ * indexes added in version 5 instead of scanning the table.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, application = Application.class)
+public class WorkoutIndexTest {
+
+    private static final String START_TYPE = "workout_start_type";
+    private static final String TYPE_START = "workout_type_start";
+
+    private CupboardSQLiteOpenHelper mHelper;
+    private MultiThreadSQLiteOpenHelper.Lease mLease;
+
+    @Before
+    public void setUp() {
+        mHelper = new CupboardSQLiteOpenHelper(RuntimeEnvironment.application);
+        mLease = mHelper.acquire();
+    }
+
+    @After
+    public void tearDown() {
+        mLease.close();
+    }
+
+    @Test
+    public void reportQueriesSearchStartIndex() {
+        assertSearches(START_TYPE, CacheManager.WORKOUT_COLUMNS_QUERY, "0", "1");
+        assertSearches(START_TYPE, CacheManager.WORKOUT_TOTALS_QUERY, "0", "1", "3");
+    }
+
+    @Test
+    public void rangeQueriesSearchStartIndex() {
+        assertSearches(START_TYPE, DailyRollup.WORKOUT_DAYS_QUERY, "0", "1");
+        // Conflict check of a new entry
+        assertSearches(START_TYPE, "SELECT * FROM Workout WHERE start BETWEEN ? AND ?", "0", "1");
+        // Window a re-sync replaces
+        assertSearches(START_TYPE, "DELETE FROM Workout WHERE start >= ? AND start < ? AND type != ?", "0", "1", "-2");
+    }
+
+    @Test
+    public void syncUpsertSearchesStartIndex() {
+        assertSearches(START_TYPE, WorkoutBatchWriter.UPDATE_WORKOUT, "1", "2", "0", "7", "");
+    }
+
+    @Test
+    public void singleTypeQueriesSearchTypeIndex() {
+        assertSearches(TYPE_START, "SELECT SUM(duration) FROM Workout WHERE type = ? AND start > ?", "7", "0");
+        // Deleting one workout matches both indexes on two columns, either one is fine
+        String plan = explain("DELETE FROM Workout WHERE start = ? AND type = ?", "0", "7");
+        assertTrue(plan, plan.contains("INDEX " + START_TYPE) || plan.contains("INDEX " + TYPE_START));
+    }
+
+    private void assertSearches(String index, String sql, String... args) {
+        String plan = explain(sql, args);
+        assertTrue(plan, plan.contains("SEARCH"));
+        assertTrue(plan, plan.contains("INDEX " + index + " "));
+    }
+
+    private String explain(String sql, String... args) {
+        SQLiteDatabase db = mLease.getDatabase();
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
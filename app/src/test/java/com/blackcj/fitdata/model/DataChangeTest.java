@@ -0,0 +1,82 @@
+package com.blackcj.fitdata.model;
+
+import com.blackcj.fitdata.Utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Chris Black
+ *
+ * Checks which time frames and types a {@link DataChange} reaches.
+ */
+public class DataChangeTest {
+
+    private static final long HOUR_MILLIS = 1000 * 60 * 60;
+
+    @Test
+    public void typesAreSortedCopies() {
+        int[] types = { 8, -2, 7 };
+        DataChange change = new DataChange(0, 1, types);
+        types[0] = 100;
+        assertArrayEquals(new int[] { -2, 7, 8 }, change.types);
+        assertNull(new DataChange(0, 1, null).types);
+    }
+
+    @Test
+    public void changeOfWorkoutCoversItsStart() {
+        Workout workout = new Workout();
+        workout.start = 5000;
+        workout.duration = 600000;
+        workout.type = WorkoutTypes.RUNNING.getValue();
+        DataChange change = DataChange.of(workout);
+        assertEquals(5000, change.startTime);
+        assertEquals(5001, change.endTime);
+        assertArrayEquals(new int[] { WorkoutTypes.RUNNING.getValue() }, change.types);
+    }
+
+    @Test
+    public void hasOtherTypeIgnoresExcludedTypes() {
+        int steps = WorkoutTypes.STEP_COUNT.getValue();
+        int still = WorkoutTypes.STILL.getValue();
+        int walking = WorkoutTypes.WALKING.getValue();
+        assertFalse(new DataChange(0, 1, new int[] { steps }).hasOtherType(steps, still));
+        assertFalse(new DataChange(0, 1, new int[] { still, steps }).hasOtherType(still, steps));
+        assertTrue(new DataChange(0, 1, new int[] { steps, walking }).hasOtherType(still, steps));
+        assertTrue(new DataChange(0, 1, new int[] { walking }).hasOtherType());
+        // Unknown types may be anything
+        assertTrue(new DataChange(0, 1, null).hasOtherType(steps, still));
+        assertFalse(new DataChange(0, 1, new int[0]).hasOtherType(steps));
+    }
+
+    @Test
+    public void overlapsFromStartOfTimeFrame() {
+        for (Utilities.TimeFrame timeFrame : Utilities.TimeFrame.values()) {
+            long start = Utilities.getTimeFrameStart(timeFrame);
+            String name = timeFrame.name();
+            // The end of a change is exclusive
+            assertFalse(name, new DataChange(start - HOUR_MILLIS, start, null).overlaps(timeFrame));
+            assertTrue(name, new DataChange(start - HOUR_MILLIS, start + 1, null).overlaps(timeFrame));
+            assertTrue(name, new DataChange(start, start + 1, null).overlaps(timeFrame));
+            assertTrue(name, DataChange.ALL.overlaps(timeFrame));
+        }
+    }
+
+    @Test
+    public void onlyLastMonthEnds() {
+        long later = System.currentTimeMillis() + HOUR_MILLIS;
+        DataChange future = new DataChange(later, later + HOUR_MILLIS, null);
+        for (Utilities.TimeFrame timeFrame : Utilities.TimeFrame.values()) {
+            // Writes after the report was built still land in the frames that run up to now
+            assertEquals(timeFrame.name(), timeFrame != Utilities.TimeFrame.LAST_MONTH, future.overlaps(timeFrame));
+        }
+        long end = Utilities.getTimeFrameEnd(Utilities.TimeFrame.LAST_MONTH);
+        assertTrue(new DataChange(end - 1, end, null).overlaps(Utilities.TimeFrame.LAST_MONTH));
+        assertFalse(new DataChange(end, end + HOUR_MILLIS, null).overlaps(Utilities.TimeFrame.LAST_MONTH));
+    }
+}
@@ -0,0 +1,236 @@
+package com.blackcj.fitdata.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created by Chris Black
+ *
+ * Checks the array backed {@link WorkoutReport} against the map of Workouts it replaced, fed
+ * from Workouts and from {@link WorkoutColumns}.
+ */
+public class WorkoutReportTest {
+
+    private static final int[] TYPES = { -2, 0, 1, 2, 3, 4, 7, 8, 9, 72, 80, 500, 501, 502, 503, 504, 505, 506, 507, 508, 509 };
+
+    @Test
+    public void matchesMapReportForRandomRows() {
+        Random random = new Random(3);
+        WorkoutReport report = new WorkoutReport();
+        for (int round = 0; round < 50; round++) {
+            List<Workout> rows = randomRows(random, random.nextInt(400));
+            LegacyWorkoutReport expected = new LegacyWorkoutReport();
+            report.clearWorkoutData();
+            for (Workout workout : rows) {
+                expected.addWorkoutData(copy(workout));
+                report.addWorkoutData(workout);
+            }
+            assertSameReport(expected.getWorkoutData(), report.getWorkoutData());
+            for (int type : TYPES) {
+                assertSameWorkout(expected.getWorkoutByType(type), report.getWorkoutByType(type));
+            }
+        }
+    }
+
+    @Test
+    public void matchesMapReportFromColumns() {
+        Random random = new Random(5);
+        WorkoutColumns columns = new WorkoutColumns();
+        WorkoutReport report = new WorkoutReport();
+        for (int round = 0; round < 50; round++) {
+            List<Workout> rows = randomRows(random, random.nextInt(400));
+            LegacyWorkoutReport expected = new LegacyWorkoutReport();
+            columns.clear();
+            for (Workout workout : rows) {
+                expected.addWorkoutData(copy(workout));
+                columns.add(workout);
+            }
+            report.clearWorkoutData();
+            for (int i = 0; i < columns.size; i++) {
+                report.addWorkoutData(columns.type[i], columns.start[i], columns.duration[i], columns.steps[i]);
+            }
+            assertSameReport(expected.getWorkoutData(), report.getWorkoutData());
+        }
+    }
+
+    @Test
+    public void matchesMapReportForStepData() {
+        Random random = new Random(9);
+        List<Workout> rows = randomRows(random, 200);
+        LegacyWorkoutReport expected = new LegacyWorkoutReport();
+        WorkoutReport report = new WorkoutReport();
+        for (Workout workout : rows) {
+            expected.addWorkoutData(copy(workout));
+            report.addWorkoutData(workout);
+        }
+        Workout steps = new Workout();
+        steps.type = WorkoutTypes.STEP_COUNT.getValue();
+        steps.start = 1234;
+        steps.stepCount = 9876;
+        expected.setStepData(copy(steps));
+        report.setStepData(steps);
+        assertSameReport(expected.getWorkoutData(), report.getWorkoutData());
+
+        // A type that wasn't there yet is taken as is
+        Workout biking = new Workout();
+        biking.type = WorkoutTypes.BIKING.getValue();
+        biking.start = 55;
+        biking.duration = 600000;
+        expected = new LegacyWorkoutReport();
+        report.clearWorkoutData();
+        expected.setStepData(copy(biking));
+        report.setStepData(biking);
+        assertSameReport(expected.getWorkoutData(), report.getWorkoutData());
+    }
+
+    @Test
+    public void rowsBelowAMinuteAndStillTimeAreIgnored() {
+        WorkoutReport report = new WorkoutReport();
+        report.addWorkoutData(WorkoutTypes.STILL.getValue(), 10, 3600000, 100);
+        report.addWorkoutData(WorkoutTypes.WALKING.getValue(), 20, 59999, 0);
+        assertNull(report.getWorkoutByType(WorkoutTypes.STILL.getValue()));
+        assertNull(report.getWorkoutByType(WorkoutTypes.WALKING.getValue()));
+        report.addWorkoutData(WorkoutTypes.WALKING.getValue(), 30, 59999, 1);
+        assertNotNull(report.getWorkoutByType(WorkoutTypes.WALKING.getValue()));
+    }
+
+    @Test
+    public void callerWorkoutIsNotChanged() {
+        Workout workout = new Workout();
+        workout.type = WorkoutTypes.RUNNING.getValue();
+        workout.start = 100;
+        workout.duration = 120000;
+        workout.stepCount = 300;
+        WorkoutReport report = new WorkoutReport();
+        report.addWorkoutData(workout);
+        report.addWorkoutData(workout);
+        assertEquals(120000, workout.duration);
+        assertEquals(300, workout.stepCount);
+        assertEquals(240000, report.getWorkoutByType(workout.type).duration);
+    }
+
+    /**
+     * Rows in start order like the queries return them, with zero, short and long durations.
+     */
+    private static List<Workout> randomRows(Random random, int count) {
+        List<Workout> rows = new ArrayList<>(count);
+        long start = 1000000;
+        for (int i = 0; i < count; i++) {
+            start += random.nextInt(3600000);
+            Workout workout = new Workout();
+            workout.start = start;
+            workout.type = TYPES[random.nextInt(TYPES.length)];
+            workout.duration = random.nextBoolean() ? random.nextInt(60000) : random.nextInt(7200000);
+            workout.stepCount = random.nextInt(3) == 0 ? 0 : random.nextInt(10000);
+            workout.packageName = random.nextBoolean() ? "com.google.android.gms" : "com.blackcj.fitdata";
+            rows.add(workout);
+        }
+        return rows;
+    }
+
+    /**
+     * Same entries. The order is only compared for the summary, types with equal starts tie
+     * in the sort and the map came out in hash order.
+     */
+    private static void assertSameReport(List<Workout> expected, List<Workout> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(WorkoutTypes.TIME.getValue(), actual.get(0).type);
+        Map<Integer, Workout> byType = new HashMap<>();
+        for (Workout workout : actual) {
+            byType.put(workout.type, workout);
+        }
+        for (Workout workout : expected) {
+            assertSameWorkout(workout, byType.get(workout.type));
+        }
+    }
+
+    private static void assertSameWorkout(Workout expected, Workout actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.type, actual.type);
+        assertEquals(expected.start, actual.start);
+        assertEquals(expected.duration, actual.duration);
+        assertEquals(expected.stepCount, actual.stepCount);
+    }
+
+    private static Workout copy(Workout workout) {
+        Workout copy = new Workout();
+        copy.start = workout.start;
+        copy.type = workout.type;
+        copy.duration = workout.duration;
+        copy.stepCount = workout.stepCount;
+        copy.packageName = workout.packageName;
+        return copy;
+    }
+
+    /**
+     * The map based report from before the arrays, kept as the reference.
+     */
+    private static class LegacyWorkoutReport {
+        private Map<Integer, Workout> map = new HashMap<>();
+
+        void addWorkoutData(Workout workout) {
+            if (workout.type == WorkoutTypes.STILL.getValue() || (workout.stepCount == 0 && workout.duration < 60000)) {
+                return;
+            }
+            if (map.get(workout.type) == null) {
+                map.put(workout.type, workout);
+            } else {
+                Workout w = map.get(workout.type);
+                w.stepCount += workout.stepCount;
+                w.duration += workout.duration;
+            }
+        }
+
+        ArrayList<Workout> getWorkoutData() {
+            Workout summary = new Workout();
+            summary.type = WorkoutTypes.TIME.getValue();
+            summary.duration = getTotalDuration();
+            summary.start = -1;
+            if (map.get(summary.type) == null) {
+                map.put(summary.type, summary);
+            }
+            ArrayList<Workout> result = new ArrayList<>(map.values());
+            Collections.sort(result);
+            return result;
+        }
+
+        long getTotalDuration() {
+            long totalDuration = 0;
+            for (Workout workout : map.values()) {
+                if (workout.type != WorkoutTypes.TIME.getValue() && workout.type != WorkoutTypes.STILL.getValue()
+                        && workout.type != WorkoutTypes.IN_VEHICLE.getValue()) {
+                    totalDuration += workout.duration;
+                }
+            }
+            return totalDuration;
+        }
+
+        void setStepData(Workout workout) {
+            if (map.get(workout.type) == null) {
+                map.put(workout.type, workout);
+            } else {
+                Workout w = map.get(workout.type);
+                w.start = 0;
+                w.stepCount = workout.stepCount;
+            }
+        }
+
+        Workout getWorkoutByType(int type) {
+            return map.get(type);
+        }
+    }
+}
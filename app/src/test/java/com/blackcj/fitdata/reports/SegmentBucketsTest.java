@@ -0,0 +1,162 @@
+package com.blackcj.fitdata.reports;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Chris Black
+ *
+ * Checks that {@link SegmentBuckets} reuses its arrays across resets, copies deeply and maps
+ * times to day and week segments across daylight saving time.
+ */
+public class SegmentBucketsTest {
+
+    private TimeZone mDefaultTimeZone;
+    private Locale mDefaultLocale;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        mDefaultLocale = Locale.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        Locale.setDefault(Locale.US);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    @Test
+    public void seriesStaySortedByType() {
+        SegmentBuckets buckets = new SegmentBuckets();
+        buckets.reset(1, 5, getTime(2016, Calendar.JUNE, 15, 12));
+        int[] types = { 8, -2, 72, 1, 7, 0, 3, 80, 9 };
+        for (int i = 0; i < types.length; i++) {
+            buckets.add(types[i], i % 5, types[i] + 100);
+        }
+        assertEquals(types.length, buckets.size);
+        for (int n = 0; n < buckets.size; n++) {
+            if (n > 0) {
+                assertTrue(buckets.types[n - 1] < buckets.types[n]);
+            }
+            int[] series = buckets.values[n];
+            assertEquals(5, series.length);
+            int sum = 0;
+            for (int value : series) {
+                sum += value;
+            }
+            assertEquals(buckets.types[n] + 100, sum);
+            assertTrue(series == buckets.getSeries(buckets.types[n]));
+        }
+    }
+
+    @Test
+    public void resetReusesArrays() {
+        SegmentBuckets buckets = new SegmentBuckets();
+        long now = getTime(2016, Calendar.JUNE, 15, 12);
+        buckets.reset(1, 30, now);
+        Map<int[], Boolean> arrays = new IdentityHashMap<>();
+        for (int type = 0; type < 12; type++) {
+            buckets.add(type, type, 5);
+            arrays.put(buckets.getSeries(type), true);
+        }
+
+        // Same types in another order, and fewer of them
+        buckets.reset(1, 30, now);
+        for (int type = 10; type >= 2; type--) {
+            int[] series = buckets.getSeries(type);
+            assertTrue(arrays.containsKey(series));
+            assertArrayEquals(new int[30], series);
+            series[0] = type;
+        }
+        assertEquals(9, buckets.size);
+        for (int n = 0; n < buckets.size; n++) {
+            assertEquals(n + 2, buckets.values[n][0]);
+        }
+
+        // A different number of segments needs new arrays
+        buckets.reset(1, 10, now);
+        int[] series = buckets.getSeries(4);
+        assertEquals(10, series.length);
+        assertTrue(!arrays.containsKey(series));
+    }
+
+    @Test
+    public void copyFromIsDeep() {
+        SegmentBuckets source = new SegmentBuckets();
+        source.reset(7, 8, getTime(2016, Calendar.MARCH, 16, 9));
+        source.add(7, 7, 1000);
+        source.add(1, 3, 50);
+        source.add(8, 0, 20);
+
+        SegmentBuckets copy = new SegmentBuckets();
+        // Leftovers of an earlier load, with more series and another segment count
+        copy.reset(1, 30, getTime(2015, Calendar.JANUARY, 1, 9));
+        for (int type = 0; type < 6; type++) {
+            copy.add(type, 1, 1);
+        }
+        copy.copyFrom(source);
+
+        assertEquals(source.size, copy.size);
+        assertEquals(source.getSegmentCount(), copy.getSegmentCount());
+        for (int n = 0; n < source.size; n++) {
+            assertEquals(source.types[n], copy.types[n]);
+            assertArrayEquals(source.values[n], copy.values[n]);
+            assertNotSame(source.values[n], copy.values[n]);
+        }
+        for (int segment = -2; segment < 10; segment++) {
+            assertEquals(source.getSegmentStart(segment), copy.getSegmentStart(segment));
+        }
+        long time = getTime(2016, Calendar.FEBRUARY, 2, 18);
+        assertEquals(source.getSegment(time), copy.getSegment(time));
+
+        source.add(7, 7, 1);
+        assertEquals(1000, copy.getSeries(7)[7]);
+    }
+
+    @Test
+    public void segmentsFollowLocalDaysAndWeeks() {
+        // Covers both daylight saving changes of two years
+        long now = getTime(2017, Calendar.JANUARY, 10, 0) + 30 * 60 * 1000;
+        for (int multiplier : new int[] { 1, 3, 7 }) {
+            SegmentBuckets buckets = new SegmentBuckets();
+            int numSegments = 800 / multiplier;
+            buckets.reset(multiplier, numSegments, now);
+            assertEquals(numSegments - 1, buckets.getSegment(now));
+            assertEquals(-1, buckets.getSegment(buckets.getSegmentStart(numSegments)));
+            for (int segment = 1; segment < numSegments; segment++) {
+                long start = buckets.getSegmentStart(segment);
+                Calendar cal = Calendar.getInstance();
+                cal.setTimeInMillis(start);
+                assertEquals(0, cal.get(Calendar.HOUR_OF_DAY));
+                if (multiplier == 7) {
+                    assertEquals(Calendar.SUNDAY, cal.get(Calendar.DAY_OF_WEEK));
+                }
+                assertEquals(segment, buckets.getSegment(start));
+                assertEquals(segment - 1, buckets.getSegment(start - 1));
+                assertEquals(segment, buckets.getSegment(buckets.getSegmentStart(segment + 1) - 1));
+            }
+        }
+    }
+
+    private static long getTime(int year, int month, int day, int hour) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day, hour, 0);
+        return cal.getTimeInMillis();
+    }
+}
@@ -0,0 +1,129 @@
+package com.blackcj.fitdata.reports;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Chris Black
+ *
+ * Compares the levels and range queries of {@link SeriesPyramid} with scanning the values.
+ */
+public class SeriesPyramidTest {
+
+    @Test
+    public void rangeMinMaxMatchScan() {
+        Random random = new Random(1);
+        SeriesPyramid pyramid = new SeriesPyramid();
+        for (int length = 0; length <= 130; length++) {
+            int[] values = randomValues(random, length);
+            pyramid.build(values);
+            for (int start = -2; start <= length + 2; start++) {
+                for (int end = start; end <= length + 2; end++) {
+                    String range = length + ": " + start + " - " + end;
+                    assertEquals(range, scanMin(values, start, end), pyramid.getRangeMin(start, end));
+                    assertEquals(range, scanMax(values, start, end), pyramid.getRangeMax(start, end));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void levelsMatchScan() {
+        Random random = new Random(2);
+        SeriesPyramid pyramid = new SeriesPyramid();
+        for (int length : new int[] { 1, 2, 3, 7, 8, 9, 100, 1024, 1025, 3653 }) {
+            int[] values = randomValues(random, length);
+            pyramid.build(values);
+            assertEquals(length, pyramid.getLength());
+            int level = 0;
+            for (; level < pyramid.getLevelCount(); level++) {
+                int width = 1 << level;
+                assertEquals((length + width - 1) / width, pyramid.getBucketCount(level));
+                for (int bucket = 0; bucket < pyramid.getBucketCount(level); bucket++) {
+                    int first = bucket * width;
+                    int end = Math.min(first + width, length);
+                    long sum = 0;
+                    for (int i = first; i < end; i++) {
+                        sum += values[i];
+                    }
+                    assertEquals(sum, pyramid.getSum(level, bucket));
+                    assertEquals(scanMin(values, first, end), pyramid.getMin(level, bucket));
+                    assertEquals(scanMax(values, first, end), pyramid.getMax(level, bucket));
+                    // The last bucket may be narrower, its average is over the values it holds
+                    assertEquals(sum / (end - first), pyramid.getAverage(level, bucket));
+                }
+            }
+            // The top level is a single bucket
+            assertEquals(1, pyramid.getBucketCount(level - 1));
+        }
+    }
+
+    @Test
+    public void rebuildReplacesValues() {
+        SeriesPyramid pyramid = new SeriesPyramid();
+        pyramid.build(new int[] { 5, 1, 9, 3, 7 });
+        assertEquals(9, pyramid.getRangeMax(0, 5));
+        // Same length reuses the levels, every value has to be overwritten
+        pyramid.build(new int[] { 2, 2, 2, 2, 2 });
+        assertEquals(2, pyramid.getRangeMax(0, 5));
+        assertEquals(2, pyramid.getRangeMin(0, 5));
+        assertEquals(10, pyramid.getSum(pyramid.getLevelCount() - 1, 0));
+        // A new length starts over
+        pyramid.build(new int[] { 4, -6 });
+        assertEquals(2, pyramid.getLevelCount());
+        assertEquals(-6, pyramid.getRangeMin(0, 10));
+        assertEquals(-2, pyramid.getSum(1, 0));
+        pyramid.build(new int[0]);
+        assertEquals(0, pyramid.getRangeMax(0, 1));
+    }
+
+    @Test
+    public void levelKeepsPointsBounded() {
+        assertEquals(0, SeriesPyramid.getLevel(0, 200));
+        assertEquals(0, SeriesPyramid.getLevel(200, 200));
+        assertEquals(1, SeriesPyramid.getLevel(201, 200));
+        assertEquals(1, SeriesPyramid.getLevel(400, 200));
+        // Ten years of days
+        int level = SeriesPyramid.getLevel(3653, 200);
+        assertEquals(5, level);
+        assertTrue(3653.0 / (1 << level) <= 200 && 3653.0 / (1 << (level - 1)) > 200);
+    }
+
+    private static int[] randomValues(Random random, int length) {
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextInt(40000) - 1000;
+        }
+        return values;
+    }
+
+    private static int scanMin(int[] values, int start, int end) {
+        start = Math.max(start, 0);
+        end = Math.min(end, values.length);
+        if (start >= end) {
+            return 0;
+        }
+        int min = Integer.MAX_VALUE;
+        for (int i = start; i < end; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    private static int scanMax(int[] values, int start, int end) {
+        start = Math.max(start, 0);
+        end = Math.min(end, values.length);
+        if (start >= end) {
+            return 0;
+        }
+        int max = Integer.MIN_VALUE;
+        for (int i = start; i < end; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+}